@@ -0,0 +1,40 @@
+package com.tracme.training;
+
+// DotProduct with the Java Vector API, for server JVMs; see DotProduct for how it is built and selected
+// The sparse dot product loads SPECIES.length() values of the SV's row per step, gathers the matching attributes of
+// the dense sample through the row's indices, and adds their products to one accumulator lane each (fused
+// multiply-add); the lanes are added up at the end, then the values left over by the last full step.
+// Error: the sums are reordered, and each of the two orders is within n * 2^-53 * sum(|value[k]*dense[index[k]]|) of
+// the exact sum for n terms, so they differ by at most twice that (maxError()). What it does to a kernel value depends
+// on gamma and on the magnitude of the SVs and the sample; SupportVectors.denseError() works it out for each sample.
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class VectorDotProduct extends DotProduct {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final double UNIT_ROUNDOFF = 0x1.0p-53;
+	
+	double dot(double[] value, int[] index, int from, int to, double[] dense) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int k = from;
+		for (int upper = from + SPECIES.loopBound(to - from); k < upper; k += SPECIES.length()) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, value, k);
+			DoubleVector x = DoubleVector.fromArray(SPECIES, dense, 0, index, k);
+			acc = v.fma(x, acc);
+		}
+		double ret = acc.reduceLanes(VectorOperators.ADD);
+		for (; k < to; k++)
+			ret += value[k]*dense[index[k]];
+		return ret;
+	}
+	
+	boolean reordersSums() {
+		return true;
+	}
+	
+	double maxError(int n, double absSum) {
+		return 2 * n * UNIT_ROUNDOFF * absSum;
+	}
+}
@@ -3,6 +3,7 @@
  */
 package com.tracme.localize;
 
+import com.tracme.training.TrainingModel;
 import com.tracme.util.AndroidLog;
 
 import android.app.Application;
@@ -42,5 +43,17 @@ public class LocalizeApplication extends Application {
 	
 	/** Number of scans/predictions done before outputting prediction on image */
 	protected int numScans = 5;
+	
+	/** How the localization models keep their support vectors in memory (TrainingModel.STORAGE_*) */
+	protected int modelStorage = TrainingModel.STORAGE_DOUBLE;
+	
+	/** Flag specifying whether consecutive scans update the previous distances instead of recomputing them (needs TrainingModel.STORAGE_POOLED) */
+	protected boolean incrementalQueries = false;
+	
+	/** Flag specifying whether models are loaded when first needed, the others being loaded in the background; off by default since a query needing a model not yet loaded reads it on the thread that localizes */
+	protected boolean lazyModelLoading = false;
+	
+	/** Number of levels of the stripe search trees loaded before the first fix when lazyModelLoading is set; deeper levels give coarse estimates until loaded */
+	protected int readyModelLevels = 3;
 
 }
@@ -66,6 +66,12 @@ public class MainActivity extends Activity implements OnTouchListener {
 	/** String passed to main thread specifying that the TestingTask Object failed to load */
 	public static final String PERSIST_LOAD_FAIL = "LoadFail";
 	
+	/** String passed to main thread specifying that the models could not be loaded; the error is under ERROR_KEY */
+	public static final String LOAD_FAIL = "ModelLoadFail";
+	
+	/** Key of the error text in the data of a LOAD_FAIL message */
+	public static final String ERROR_KEY = "com.tracme.localize.MainActivity.Error";
+	
 	/** TAG Given to log on error of initial thread */
 	public static final String INITLOAD_TAG = "INITLOAD_THREAD";
 	
@@ -308,7 +314,17 @@ public class MainActivity extends Activity implements OnTouchListener {
 				
 				// Setup the model classes
 				localize.setNumClasses(thisApp.nX, thisApp.nY, initialProgBar);
-				// Once models are loaded, send a message to the main thread
+			} catch (Exception e)
+			{
+				// a model file that is missing or cannot be read: tell the main thread, which tells the user
+				Log.e(INITLOAD_TAG, "Error while loading classes");
+				e.printStackTrace();
+				sendLoadFailure(e);
+				return;
+			}
+			
+			try {
+				// Once models are loaded, send a message to the main thread
 				
 				if (thisApp.debugMode)
 					endTime = System.nanoTime();
@@ -321,17 +337,57 @@ public class MainActivity extends Activity implements OnTouchListener {
 				messenger.send(msg);
 				
 				if (thisApp.debugMode)
+				{
 					thisApp.localizationLog.save("Time taken to load X" + thisApp.nX + ", Y" + thisApp.nY + " classes: " +
 							((endTime - startTime) / thisApp.nanoMult) + "." + ((endTime - startTime) % thisApp.nanoMult) + " seconds\n" );
+					// with lazy loading, only the models loaded so far are counted
+					thisApp.localizationLog.save("Memory used by the models: " + localize.memoryUsage() + "\n");
+				}
 				
 			} catch (Exception e)
 			{
-				Log.e("INITLOAD_THREAD", "Error while loading classees");
+				Log.e(INITLOAD_TAG, "Error Sending Load Complete Message");
 				e.printStackTrace();
 			}
 		}
 	}
 	
+	/**
+	 * Tells the main thread that the models could not be loaded
+	 * 
+	 * @param e The error that stopped the load, shown to the user
+	 */
+	private void sendLoadFailure(Exception e)
+	{
+		try {
+			Message msg = Message.obtain();
+			msg.obj = LOAD_FAIL;
+			Bundle data = new Bundle();
+			data.putString(ERROR_KEY, (e.getMessage() == null)? e.toString() : e.getMessage());
+			msg.setData(data);
+			messenger.send(msg);
+		} catch (Exception ex)
+		{
+			Log.e(INITLOAD_TAG, "Error Sending Failure Message\n");
+			ex.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Tells the user that the localization models could not be loaded and goes back to the load screen,
+	 * where the files can be fixed or another floor picked
+	 * 
+	 * @param error Description of the error
+	 */
+	private void showModelFailure(String error)
+	{
+		if (thisApp.debugMode)
+			thisApp.localizationLog.save("Failed to load the localization models: " + error + "\n");
+		Toast.makeText(MainActivity.this, "Unable to load the localization models: " + error,
+				Toast.LENGTH_LONG).show();
+		finish();
+	}
+	
 	/**
 	 * Nested Handler class for message communication between main activity and other threads/services
 	 * started by the activity
@@ -361,6 +417,13 @@ public class MainActivity extends Activity implements OnTouchListener {
 				return;
 			}
 			
+			// Check if the initial load thread failed to load the models
+			if (msg.obj == LOAD_FAIL)
+			{
+				showModelFailure(msg.getData().getString(ERROR_KEY));
+				return;
+			}
+			
 			// Check if this is a message from the prediction thread
 			if (msg.obj == PREDICTION_COMPLETE)
 			{	
@@ -414,7 +477,16 @@ public class MainActivity extends Activity implements OnTouchListener {
 				rssis = inData.getDoubleArray(LocalizeService.SCANARRAY_KEY);
 				
 				// Call to Training interface: Predict the location
-				predObj.prediction = localize.getEstLocation(rssis);
+				// with lazy loading, a model that fails to load when the search first needs it fails the query
+				try {
+					predObj.prediction = localize.getEstLocation(rssis);
+				} catch (IllegalStateException e)
+				{
+					Log.e(PREDICT_THREAD_TAG, "Error while predicting");
+					e.printStackTrace();
+					showModelFailure(e.getMessage());
+					return;
+				}
 				
 				if (thisApp.debugMode)
 				{
@@ -808,6 +880,10 @@ public class MainActivity extends Activity implements OnTouchListener {
 	private void initTraining()
 	{
 		localize = new TestingTask(rawFile, trainFile);
+		localize.setStorage(thisApp.modelStorage);
+		localize.setIncremental(thisApp.incrementalQueries);
+		localize.setLazyLoading(thisApp.lazyModelLoading, true);
+		localize.setReadyLevels(thisApp.readyModelLevels);
 		
 		// Make instance of runnable class for initial load of models..
 		InitialLoadRunnable loadRunnable = new InitialLoadRunnable();
@@ -997,15 +1073,12 @@ public class MainActivity extends Activity implements OnTouchListener {
 	{
 		try {
 			FileOutputStream fos = openFileOutput(rawFile, Context.MODE_PRIVATE);
-			ObjectOutputStream os = new ObjectOutputStream(fos);
-			os.writeObject(localize);
+			localize.writeSnapshot(fos);
 			writtenToStorage = true; // Mark that we have written something to storage
-			os.writeBoolean(writtenToStorage); // Save marker that we have written to storage
 			
 			if (thisApp.debugMode)
 				thisApp.localizationLog.save("SAVED LOCALIZATION OBJECT:\n");
 			
-			os.close();
 			fos.close();
 			return true;
 		} catch (Exception e) {
@@ -1022,12 +1095,9 @@ public class MainActivity extends Activity implements OnTouchListener {
 	private boolean loadLocalizeData()
 	{
 		try {
-			FileInputStream fis = openFileInput(rawFile);
-			ObjectInputStream ois = new ObjectInputStream(fis);
-			localize = (TestingTask)ois.readObject();
-			writtenToStorage = (boolean)ois.readBoolean();
-			ois.close();
-			fis.close();
+			localize = TestingTask.readSnapshot(getFileStreamPath(rawFile));
+			// only a complete snapshot passes readSnapshot()'s checksum
+			writtenToStorage = true;
 			return true;
 		} catch (Exception e)
 		{
@@ -0,0 +1,146 @@
+package com.tracme.training;
+
+// DoubleSupportVectors in one direct ByteBuffer: the alphas, norms, offsets and the CSR arrays of the SVs all live in
+// the buffer, and the kernel reads them in place. A loaded model is then a handful of objects instead of seven arrays
+// for the garbage collector to trace.
+// Only on a desktop or server JVM is the buffer outside the Java heap. On Android, allocateDirect() returns a
+// non-movable byte[] on the Java heap, so the SVs still count against the app's heap limit (see MemoryUsage), and the
+// gain is only the fewer objects. The absolute getDouble()/getInt() calls cost more than array reads too: on HotSpot
+// 17, 300 queries of the bundled 30x30 floor take 15.5 ms instead of 10.2 ms with STORAGE_DOUBLE (JIT), and 6.1 s
+// instead of 0.16 s interpreted (-Xint). The simpler compilers of Android land in between at best (not measured on a
+// device), so STORAGE_DOUBLE is the storage to use on a phone.
+// The values and the order of the arithmetic are those of DoubleSupportVectors, so the distances are identical.
+//
+// buffer layout (native byte order), for n SVs with nnz active non-zeros in total:
+//   double[n] coef, double[n] norm, double[n] offset, double[nnz] value, int[n+1] start, int[nnz] index
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+class DirectSupportVectors extends SupportVectors {
+	private static final long serialVersionUID = -3052916424581772339L;
+	
+	transient private ByteBuffer buf; // see the layout above; written out by writeObject()
+	private int nnz;
+	// byte offsets of the arrays in buf
+	private int normBase, offsetBase, valueBase, startBase, indexBase;
+	private ScaleRange range;
+	
+	DirectSupportVectors(int[] sv_start1, int[] sv_index1, double[] sv_value1, double[] sv_coef1, ScaleRange range1) {
+		total_sv = sv_coef1.length;
+		range = range1;
+		
+		// the attributes that are not active are dropped, as in DoubleSupportVectors
+		nnz = 0;
+		for (int k=0; k < sv_start1[total_sv]; k++)
+			if (range.factor[sv_index1[k]] != 0) nnz++;
+		normBase = 8*total_sv;
+		offsetBase = normBase + 8*total_sv;
+		valueBase = offsetBase + 8*total_sv;
+		startBase = valueBase + 8*nnz;
+		indexBase = startBase + 4*(total_sv+1);
+		buf = ByteBuffer.allocateDirect(indexBase + 4*nnz).order(ByteOrder.nativeOrder());
+		
+		int k1 = 0;
+		for (int i=0;i<total_sv;i++) {
+			double norm=0, offset=0;
+			buf.putInt(startBase + 4*i, k1);
+			for (int k=sv_start1[i];k<sv_start1[i+1];k++) {
+				int j=sv_index1[k];
+				norm+=sv_value1[k]*sv_value1[k];
+				offset+=sv_value1[k]*range.offset[j];
+				if (range.factor[j] != 0) {
+					buf.putInt(indexBase + 4*k1, j);
+					buf.putDouble(valueBase + 8*k1, sv_value1[k]*range.factor[j]);
+					k1++;
+				}
+			}
+			buf.putDouble(8*i, sv_coef1[i]);
+			buf.putDouble(normBase + 8*i, norm);
+			buf.putDouble(offsetBase + 8*i, offset);
+		}
+		buf.putInt(startBase + 4*total_sv, nnz);
+	}
+	
+	double coef(int i) {
+		return buf.getDouble(8*i);
+	}
+	
+	ScaledSample scale(Query q) {
+		// only the norm is needed, as in DoubleSupportVectors
+		DoubleSupportVectors.DoubleScaledSample ret = new DoubleSupportVectors.DoubleScaledSample();
+		ret.sample = q.sample;
+		ret.norm = q.norm(range);
+		return ret;
+	}
+	
+	double sqDist(int i, ScaledSample a) {
+		DoubleSupportVectors.DoubleScaledSample b = (DoubleSupportVectors.DoubleScaledSample) a;
+		double dist = b.norm + buf.getDouble(normBase + 8*i) - 2*(buf.getDouble(offsetBase + 8*i) + sparseDot(i, b.sample));
+		return (dist < 0)? 0 : dist;
+	}
+	
+	private double sparseDot(int i, SparseSample a) {
+		// merge of the SV and sample index lists, as in DoubleSupportVectors.sparseDot()
+		ByteBuffer b=buf;
+		int k=b.getInt(startBase + 4*i), kEnd=b.getInt(startBase + 4*(i+1));
+		int m=0, mEnd=a.size;
+		int[] aIndex=a.index;
+		double[] aValue=a.value;
+		double ret=0;
+		while (k<kEnd && m<mEnd) {
+			int svIdx=b.getInt(indexBase + 4*k), aIdx=aIndex[m];
+			if (svIdx == aIdx) {
+				ret+=b.getDouble(valueBase + 8*k)*aValue[m];
+				k++;
+				m++;
+			}
+			else if (svIdx < aIdx) k++;
+			else m++;
+		}
+		return ret;
+	}
+	
+	double kernelFunction(int i, ScaledSample a, double[] dense, double gamma) {
+		// gathered from dense, as in DoubleSupportVectors
+		DoubleSupportVectors.DoubleScaledSample b1 = (DoubleSupportVectors.DoubleScaledSample) a;
+		ByteBuffer b=buf;
+		double dot = 0;
+		for (int k=b.getInt(startBase + 4*i), kEnd=b.getInt(startBase + 4*(i+1)); k<kEnd; k++)
+			dot += b.getDouble(valueBase + 8*k)*dense[b.getInt(indexBase + 4*k)];
+		double dist = b1.norm + b.getDouble(normBase + 8*i) - 2*(b.getDouble(offsetBase + 8*i) + dot);
+		return Math.exp((0-gamma) * ((dist < 0)? 0 : dist));
+	}
+	
+	boolean usesDense() {
+		return true;
+	}
+	
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		byte[] data = new byte[buf.capacity()];
+		ByteBuffer src = buf.duplicate();
+		src.clear();
+		src.get(data);
+		out.writeInt(data.length);
+		out.write(data);
+		out.writeBoolean(buf.order() == ByteOrder.BIG_ENDIAN);
+	}
+	
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		ByteOrder order = in.readBoolean()? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+		buf = ByteBuffer.allocateDirect(data.length).order(order);
+		buf.put(data);
+		buf.clear();
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		// on the heap, only this object and the buffer object (a DirectByteBuffer has about ten fields)
+		u.supportVectors += MemoryUsage.object(4*7 + 2*MemoryUsage.REFERENCE) + MemoryUsage.object(48);
+		u.directBuffers += buf.capacity();
+	}
+}
@@ -0,0 +1,53 @@
+package com.tracme.training;
+
+// dot products of the gathered kernel, see DoubleSupportVectors.kernelFunction(i, a, dense, gamma) and
+// TrainingModel.kernelSum()/kernelSums(): an SV's CSR row with a sample spread over a dense array
+// This scalar backend adds the terms in order, so its sums are those of DoubleSupportVectors.sparseDot().
+// On a JVM with the jdk.incubator.vector module (JDK 16 and later, run with --add-modules jdk.incubator.vector),
+// get() returns VectorDotProduct instead: it gathers several attributes of the sample per instruction and adds the
+// products lane by lane, so its sums differ from the scalar ones in the last bits. Its source is in src-vector, which
+// the Android build does not compile (the runtime has no Vector API); for a server JVM, compile it into the same classes:
+//   javac --release 17 --add-modules jdk.incubator.vector -cp <classes> -d <classes> src-vector/com/tracme/training/*.java
+// When the class or the module is missing, get() falls back to the scalar backend.
+// The backend is chosen once, when this class is loaded.
+
+class DotProduct {
+	private static final DotProduct INSTANCE = create();
+	
+	static DotProduct get() {
+		return INSTANCE;
+	}
+	
+	private static DotProduct create() {
+		try{
+			DotProduct ret = (DotProduct) Class.forName("com.tracme.training.VectorDotProduct").getDeclaredConstructor().newInstance();
+			// a missing module only shows when the Vector API is first used
+			ret.dot(new double[] {1, 2}, new int[] {1, 0}, 0, 2, new double[] {3, 4});
+			return ret;
+		}
+		catch(Throwable e){
+			// not built for this JVM, or run without the module
+			return new DotProduct();
+		}
+	}
+	
+	double dot(double[] value, int[] index, int from, int to, double[] dense) {
+		// sum of value[k]*dense[index[k]] for k = from .. to-1
+		double ret = 0;
+		for (int k=from; k<to; k++)
+			ret += value[k]*dense[index[k]];
+		return ret;
+	}
+	
+	// true if the sums differ from those of the scalar backend
+	boolean reordersSums() {
+		return false;
+	}
+	
+	// bound on the difference between the dot product of this backend and that of the scalar one, for n
+	// terms whose products add up to at most absSum in absolute value (0: the same values); see
+	// SupportVectors.denseError() for what it does to a kernel value
+	double maxError(int n, double absSum) {
+		return 0;
+	}
+}
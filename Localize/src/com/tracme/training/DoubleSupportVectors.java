@@ -0,0 +1,150 @@
+package com.tracme.training;
+
+// full-precision support vectors in compressed sparse row (CSR) form, as they appear in the .model file
+// the scaling is folded into the stored values: for an active attribute j, scaled(x_j) - offset_j = factor_j*x_j, so
+//   a.sv = sv.offset + sum_j (sv_j*factor_j) * x_j
+// and the raw values of a sample can be used directly; sv.offset is a per-SV constant
+
+import java.util.Arrays;
+
+class DoubleSupportVectors extends SupportVectors {
+	private static final long serialVersionUID = 5869417180658036472L;
+	private static final DotProduct DOT = DotProduct.get();
+	
+	static class DoubleScaledSample extends ScaledSample {
+		double norm; // ||scaled sample||^2
+	}
+	
+	private double[] sv_coef; // "alpha" value of each support vector
+	// the active non-zero features of SV i are sv_index/sv_value[sv_start[i] .. sv_start[i+1]-1],
+	// indices start at 0 and are increasing; sv_value holds sv_j*factor_j
+	private int[] sv_start;
+	private int[] sv_index;
+	private double[] sv_value;
+	private double[] sv_norm; // squared norm ||sv||^2 of each support vector
+	private double[] sv_offset; // sv.offset: dot product of each SV with the scaled all-zero sample
+	private ScaleRange range;
+	// the largest sum(|sv_value|) and number of values of an SV, for denseError(); worked out when first needed
+	transient private volatile boolean rowStats;
+	transient private double maxRowSum;
+	transient private int maxRowSize;
+	
+	DoubleSupportVectors(int[] sv_start1, int[] sv_index1, double[] sv_value1, double[] sv_coef1, ScaleRange range1) {
+		total_sv = sv_coef1.length;
+		sv_coef = sv_coef1;
+		range = range1;
+		
+		// precompute ||sv||^2 and sv.offset so the kernel only needs a sparse dot product with the raw sample;
+		// features of attributes that are not active are counted in ||sv||^2 and then dropped
+		sv_norm = new double[total_sv];
+		sv_offset = new double[total_sv];
+		sv_start = new int[total_sv+1];
+		sv_index = new int[sv_start1[total_sv]];
+		sv_value = new double[sv_index.length];
+		int nnz = 0;
+		for (int i=0;i<total_sv;i++) {
+			double norm=0, offset=0;
+			sv_start[i]=nnz;
+			for (int k=sv_start1[i];k<sv_start1[i+1];k++) {
+				int j=sv_index1[k];
+				norm+=sv_value1[k]*sv_value1[k];
+				offset+=sv_value1[k]*range.offset[j];
+				if (range.factor[j] != 0) {
+					sv_index[nnz]=j;
+					sv_value[nnz]=sv_value1[k]*range.factor[j];
+					nnz++;
+				}
+			}
+			sv_norm[i]=norm;
+			sv_offset[i]=offset;
+		}
+		sv_start[total_sv]=nnz;
+		if (nnz < sv_index.length) {
+			sv_index=Arrays.copyOf(sv_index, nnz);
+			sv_value=Arrays.copyOf(sv_value, nnz);
+		}
+	}
+	
+	double coef(int i) {
+		return sv_coef[i];
+	}
+	
+	ScaledSample scale(Query q) {
+		// only the norm is needed; it is shared with the other models of the same ScaleRange
+		DoubleScaledSample ret = new DoubleScaledSample();
+		ret.sample = q.sample;
+		ret.norm = q.norm(range);
+		return ret;
+	}
+	
+	double sqDist(int i, ScaledSample a) {
+		// ||a-sv||^2 = ||a||^2 + ||sv||^2 - 2 a.sv, where a.sv = sv.offset + (merge of the two sparse lists);
+		// rounding can push a tiny distance below zero, hence the clamp
+		DoubleScaledSample b = (DoubleScaledSample) a;
+		double dist = b.norm + sv_norm[i] - 2*(sv_offset[i] + sparseDot(sv_start[i], sv_start[i+1], sv_index, sv_value, b.sample));
+		return (dist < 0)? 0 : dist;
+	}
+	
+	double kernelFunction(int i, ScaledSample a, double[] dense, double gamma) {
+		// as sqDist(), with the dot product gathered from dense: the terms of the attributes a does not list are 0,
+		// so with the scalar DotProduct the sum is that of sparseDot()
+		DoubleScaledSample b = (DoubleScaledSample) a;
+		double dot = DOT.dot(sv_value, sv_index, sv_start[i], sv_start[i+1], dense);
+		double dist = b.norm + sv_norm[i] - 2*(sv_offset[i] + dot);
+		return Math.exp((0-gamma) * ((dist < 0)? 0 : dist));
+	}
+	
+	double denseError(double[] dense, double gamma) {
+		// the dot product enters the squared distance twice, so an error e of the dot product multiplies the kernel
+		// value by at most exp(2*gamma*e); sum(|sv_value[k]*dense[j]|) <= sum(|sv_value[k]|) * max(|dense[j]|)
+		if (!DOT.reordersSums()) return 0;
+		if (!rowStats) {
+			double maxSum = 0;
+			int maxSize = 0;
+			for (int i=0;i<total_sv;i++) {
+				double rowSum = 0;
+				for (int k=sv_start[i];k<sv_start[i+1];k++)
+					rowSum += Math.abs(sv_value[k]);
+				maxSum = Math.max(maxSum, rowSum);
+				maxSize = Math.max(maxSize, sv_start[i+1]-sv_start[i]);
+			}
+			maxRowSum = maxSum;
+			maxRowSize = maxSize;
+			rowStats = true;
+		}
+		double maxValue = 0;
+		for (int j=0; j < dense.length; j++)
+			maxValue = Math.max(maxValue, Math.abs(dense[j]));
+		return Math.expm1(2 * gamma * DOT.maxError(maxRowSize, maxRowSum * maxValue));
+	}
+	
+	boolean usesDense() {
+		return true;
+	}
+	
+	static double sparseDot(int k, int kEnd, int[] sv_index, double[] sv_value, SparseSample a) {
+		// sum of sv_value*a.value over the features present in both the SV (sv_index/sv_value[k .. kEnd-1]) and sample a;
+		// both index lists are increasing, so a single merge pass finds the common ones
+		int m=0, mEnd=a.size;
+		int[] aIndex=a.index;
+		double[] aValue=a.value;
+		double ret=0;
+		while (k<kEnd && m<mEnd) {
+			int svIdx=sv_index[k], aIdx=aIndex[m];
+			if (svIdx == aIdx) {
+				ret+=sv_value[k]*aValue[m];
+				k++;
+				m++;
+			}
+			else if (svIdx < aIdx) k++;
+			else m++;
+		}
+		return ret;
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		u.supportVectors += MemoryUsage.object(4*2 + 8 + 1 + 7*MemoryUsage.REFERENCE) + MemoryUsage.of(sv_coef) +
+				MemoryUsage.of(sv_start) + MemoryUsage.of(sv_index) + MemoryUsage.of(sv_value) + MemoryUsage.of(sv_norm) +
+				MemoryUsage.of(sv_offset);
+	}
+}
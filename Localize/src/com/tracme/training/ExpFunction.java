@@ -0,0 +1,21 @@
+package com.tracme.training;
+
+// evaluates exp(x) for the RBF kernel of a TrainingModel
+// this base class is exact (Math.exp); subclasses such as FastExp trade accuracy for speed
+// and report their worst-case relative error so TrainingModel can tell when the approximation
+// might flip the sign of the decision function
+
+import java.io.Serializable;
+
+public class ExpFunction implements Serializable {
+	private static final long serialVersionUID = 3318506425125922390L;
+	
+	public double exp(double x) {
+		return Math.exp(x);
+	}
+	
+	// bound on |exp(x) - Math.exp(x)| / Math.exp(x) for the x values the kernel uses (x <= 0)
+	public double maxRelativeError() {
+		return 0;
+	}
+}
@@ -0,0 +1,43 @@
+package com.tracme.training;
+
+// table-based exp(x): x*log2(e) is split into k + i/TABLE_SIZE + r with 0 <= r < 1/TABLE_SIZE, so that
+//   exp(x) = 2^k * 2^(i/TABLE_SIZE) * 2^r
+// 2^k is built directly from the exponent bits, 2^(i/TABLE_SIZE) comes from a table and
+// 2^r from a degree-3 Taylor polynomial.
+// The polynomial truncation error is below (ln(2)/TABLE_SIZE)^4/24 = 5.8e-10; with rounding of the
+// table and the arithmetic the relative error stays below MAX_RELATIVE_ERROR = 1e-9 for -700 <= x <= 700.
+// Below -700 (kernel values under 1e-304) the result is 0.
+
+public class FastExp extends ExpFunction {
+	private static final long serialVersionUID = -4603921774302218658L;
+	
+	private static final int TABLE_BITS = 6;
+	private static final int TABLE_SIZE = 1 << TABLE_BITS;
+	private static final double LOG2E = 1.4426950408889634; // log2(e)
+	private static final double LN2 = 0.6931471805599453; // ln(2)
+	private static final double MAX_RELATIVE_ERROR = 1e-9;
+	
+	private static final double[] TABLE = new double[TABLE_SIZE]; // 2^(i/TABLE_SIZE)
+	static {
+		for (int i = 0; i < TABLE_SIZE; i++)
+			TABLE[i] = Math.pow(2, (double) i / TABLE_SIZE);
+	}
+	
+	public double exp(double x) {
+		if (x < -700) return 0;
+		if (x > 700) return Math.exp(x);
+		
+		double t = x * LOG2E * TABLE_SIZE;
+		double n = Math.floor(t);
+		int ni = (int) n;
+		double r = (t - n) * (LN2 / TABLE_SIZE); // r*ln(2) in the comment above, in [0, ln(2)/TABLE_SIZE)
+		double p = 1 + r * (1 + r * (0.5 + r * (1.0/6)));
+		int k = ni >> TABLE_BITS; // arithmetic shift, i.e. floor division for negative values too
+		double twoK = Double.longBitsToDouble((long) (k + 1023) << 52);
+		return twoK * TABLE[ni & (TABLE_SIZE-1)] * p;
+	}
+	
+	public double maxRelativeError() {
+		return MAX_RELATIVE_ERROR;
+	}
+}
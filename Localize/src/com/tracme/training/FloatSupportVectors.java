@@ -0,0 +1,131 @@
+package com.tracme.training;
+
+// single-precision version of DoubleSupportVectors: SVs, alphas and scale ranges are kept as float
+// and the distance is accumulated in float. sv_start and sv_index stay int[], so the SV arrays shrink by about a
+// third, not half: for the 60 models of the bundled 30x30 floor MemoryUsage counts 1016856 bytes of SVs instead of
+// 1534576 (-34%), and 1160672 bytes in all instead of 1647768 (-30%), the per-model float scale tables included
+
+class FloatSupportVectors extends SupportVectors {
+	private static final long serialVersionUID = 7729050617931468291L;
+	
+	static class FloatScaledSample extends ScaledSample {
+		float[] delta; // (scaled value - scaled_zero) for each non-zero of the sample
+		float norm; // ||scaled sample||^2
+	}
+	
+	private float[] sv_coef; // "alpha" value of each support vector
+	// CSR layout, same as DoubleSupportVectors
+	private int[] sv_start;
+	private int[] sv_index;
+	private float[] sv_value;
+	private float[] sv_norm; // squared norm ||sv||^2 of each support vector
+	private float[] sv_offset; // dot product of each SV with scaled_zero
+	
+	private float lo, hi; // low and high bounds for scaling
+	private float[] attrMin, attrMax; // range of each attribute in a sample
+	private float[] scaled_zero; // scaled value of each attribute when its raw value is 0 (AP not heard)
+	private float zero_norm; // ||scaled_zero||^2
+	
+	FloatSupportVectors(int[] sv_start1, int[] sv_index1, double[] sv_value1, double[] sv_coef1,
+			double[][] attrRange, double lo1, double hi1) {
+		total_sv = sv_coef1.length;
+		sv_start = sv_start1;
+		sv_index = sv_index1;
+		sv_value = toFloat(sv_value1);
+		sv_coef = toFloat(sv_coef1);
+		lo = (float) lo1;
+		hi = (float) hi1;
+		attrMin = new float[attrRange.length];
+		attrMax = new float[attrRange.length];
+		for (int j=0; j < attrRange.length; j++) {
+			attrMin[j] = (float) attrRange[j][0];
+			attrMax[j] = (float) attrRange[j][1];
+		}
+		
+		// see DoubleSupportVectors for what these terms are used for
+		sv_norm=new float[total_sv];
+		for (int i=0;i<total_sv;i++) {
+			float norm=0;
+			for (int k=sv_start[i];k<sv_start[i+1];k++)
+				norm+=sv_value[k]*sv_value[k];
+			sv_norm[i]=norm;
+		}
+		scaled_zero=new float[attrMin.length];
+		zero_norm=0;
+		for (int j=0;j<attrMin.length;j++) {
+			scaled_zero[j]=scaleValue(j, 0);
+			zero_norm+=scaled_zero[j]*scaled_zero[j];
+		}
+		sv_offset=new float[total_sv];
+		for (int i=0;i<total_sv;i++) {
+			float offset=0;
+			for (int k=sv_start[i];k<sv_start[i+1];k++)
+				offset+=sv_value[k]*scaled_zero[sv_index[k]];
+			sv_offset[i]=offset;
+		}
+	}
+	
+	private static float[] toFloat(double[] a) {
+		float[] ret = new float[a.length];
+		for (int i=0; i < a.length; i++)
+			ret[i] = (float) a[i];
+		return ret;
+	}
+	
+	private float scaleValue(int i, float val) {
+		// scale raw value of attribute i using the .range info
+		if (attrMax[i]-attrMin[i] != 0)
+			return ((val-attrMin[i])/(attrMax[i]-attrMin[i]))*(hi-lo)+lo;
+		return 0;
+	}
+	
+	double coef(int i) {
+		return sv_coef[i];
+	}
+	
+	ScaledSample scale(Query q) {
+		SparseSample a = q.sample;
+		FloatScaledSample ret = new FloatScaledSample();
+		ret.sample = a;
+		ret.delta = new float[a.size];
+		ret.norm = zero_norm;
+		for (int m=0; m < a.size; m++) {
+			int i = a.index[m];
+			float val = scaleValue(i, (float) a.value[m]);
+			ret.delta[m] = val - scaled_zero[i];
+			ret.norm += val*val - scaled_zero[i]*scaled_zero[i];
+		}
+		return ret;
+	}
+	
+	double sqDist(int i, ScaledSample a) {
+		FloatScaledSample b = (FloatScaledSample) a;
+		float dist = b.norm + sv_norm[i] - 2*(sv_offset[i] + sparseDot(i, b.sample, b.delta));
+		return (dist < 0)? 0 : dist;
+	}
+	
+	private float sparseDot(int i, SparseSample a, float[] aDelta) {
+		// merge of the SV and sample index lists, as in DoubleSupportVectors
+		int k=sv_start[i], kEnd=sv_start[i+1];
+		int m=0, mEnd=a.size;
+		int[] aIndex=a.index;
+		float ret=0;
+		while (k<kEnd && m<mEnd) {
+			int svIdx=sv_index[k], aIdx=aIndex[m];
+			if (svIdx == aIdx) {
+				ret+=sv_value[k]*aDelta[m];
+				k++;
+				m++;
+			}
+			else if (svIdx < aIdx) k++;
+			else m++;
+		}
+		return ret;
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		u.supportVectors += MemoryUsage.object(4 + 4*3 + 9*MemoryUsage.REFERENCE) + MemoryUsage.of(sv_coef) + MemoryUsage.of(sv_start) +
+				MemoryUsage.of(sv_index) + MemoryUsage.of(sv_value) + MemoryUsage.of(sv_norm) + MemoryUsage.of(sv_offset);
+		u.scaleTables += MemoryUsage.of(attrMin) + MemoryUsage.of(attrMax) + MemoryUsage.of(scaled_zero);
+	}
+}
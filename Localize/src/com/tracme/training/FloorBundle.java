@@ -0,0 +1,174 @@
+package com.tracme.training;
+
+// all the X and Y stripe models of a floor in one file, memory-mapped
+// Opening a bundle is one file open and one mmap whatever the number of models, and since the pages of a
+// read-only mapping live in the OS page cache, a restarted process finds them there instead of reading the disk.
+// The header keeps one stamp for the whole bundle: the modification times of the directories of the X and of the
+// Y models (see stamp()). Retraining a stripe writes its models again, which creates or renames files in its
+// directory, and open() then rejects the bundle, so retrained models are loaded from their files (and the bundle
+// rebuilt, see TestingTask.setNumClasses()) instead of served stale; that costs two stat() calls however many models
+// there are. A model file rewritten in place leaves its directory's time alone: delete the bundle after that.
+// A TestingTask snapshot embeds a bundle of its models, see TestingTask.writeSnapshot(); it stands on its own, so
+// its stamp is not checked.
+// The models are ModelFile records, which ModelFile.read() copies into the arrays a TrainingModel is built from
+// (sorting its SVs and folding the scaling into them), so the mapping saves the open() and read() of every file,
+// not the copy.
+//
+// layout (big-endian):
+//   int MAGIC, int VERSION, int numAnchors, int numClassesX, int numClassesY
+//   long[numClassesX+numClassesY+1] offset: model k is at offset[k] .. offset[k+1]-1 from the start of the bundle,
+//     X models first; offset[numClassesX+numClassesY] is the size of the bundle
+//   long[STAMP_LENGTH] stamp: stamp() of the models' training files when they were compiled
+//   the models, each a ModelFile record as in the ModelCache
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import com.tracme.util.*;
+
+class FloorBundle {
+	static final int MAGIC = 0x4C535642; // "LSVB"
+	static final int VERSION = 3;
+	static final int STAMP_LENGTH = 2;
+	
+	private int numAnchors;
+	private int numClassesX, numClassesY;
+	private long[] offset;
+	private long[] stamp;
+	private ByteBuffer map; // the bundle, at position 0
+	
+	static FloorBundle open(String name, int numAnchors, String[] trainFilesX, String[] trainFilesY) {
+		// map the bundle of the models with the given training files (see TestingTask.modelFile()); null if it does
+		// not exist, is not for these numbers of anchors and classes, or the models changed since it was written
+		File file = new AndroidLog(name).file;
+		if (!file.exists()) return null;
+		try{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			// the mapping stays valid once the file is closed
+			MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			raf.close();
+			FloorBundle ret = read(map, numAnchors, trainFilesX.length, trainFilesY.length);
+			if (ret == null || !Arrays.equals(ret.stamp, stamp(trainFilesX, trainFilesY))) return null;
+			return ret;
+		}
+		catch(Exception e){
+			System.out.println("Failed FloorBundle.open() " + e.getMessage());
+			return null;
+		}
+	}
+	
+	static long[] stamp(String[] trainFilesX, String[] trainFilesY) {
+		// modification times of the directories of the given training files (those of a dimension share one)
+		long[] ret = new long[STAMP_LENGTH];
+		if (trainFilesX.length > 0) ret[0] = new AndroidLog(trainFilesX[0]).file.getParentFile().lastModified();
+		if (trainFilesY.length > 0) ret[1] = new AndroidLog(trainFilesY[0]).file.getParentFile().lastModified();
+		return ret;
+	}
+	
+	static FloorBundle read(ByteBuffer buf, int numAnchors, int numClassesX, int numClassesY) {
+		// the bundle at buf's position, which is moved past it; null if it is not for these numbers of anchors
+		// and classes. The models are read from buf's content when they are asked for, not copied
+		FloorBundle ret = new FloorBundle();
+		ret.map = buf.slice();
+		ByteBuffer header = ret.map.duplicate();
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) return null;
+		ret.numAnchors = header.getInt();
+		ret.numClassesX = header.getInt();
+		ret.numClassesY = header.getInt();
+		if (ret.numAnchors != numAnchors || ret.numClassesX != numClassesX || ret.numClassesY != numClassesY) return null;
+		ret.offset = new long[numClassesX+numClassesY+1];
+		LongBuffer longs = header.asLongBuffer();
+		longs.get(ret.offset);
+		ret.stamp = new long[STAMP_LENGTH];
+		longs.get(ret.stamp);
+		long size = ret.offset[numClassesX+numClassesY];
+		if (size > ret.map.capacity()) throw new BufferUnderflowException();
+		ret.map.limit((int) size);
+		buf.position(buf.position() + (int) size);
+		return ret;
+	}
+	
+	long size() {
+		// bytes of the bundle
+		return offset[numClassesX+numClassesY];
+	}
+	
+	int numModels() {
+		return numClassesX+numClassesY;
+	}
+	
+	ModelFile modelX(int i) throws IOException {
+		return model(i);
+	}
+	
+	ModelFile modelY(int i) throws IOException {
+		return model(numClassesX + i);
+	}
+	
+	private ModelFile model(int k) throws IOException {
+		// the arrays of model k are bulk-copied from the mapped pages; several threads can read models at once
+		ByteBuffer buf = map.duplicate();
+		buf.limit((int) offset[k+1]);
+		buf.position((int) offset[k]);
+		ModelFile ret;
+		try{
+			ret = ModelFile.read(buf.slice(), numAnchors);
+		}
+		catch(RuntimeException e){
+			// a record cut short
+			throw new IOException("Failed FloorBundle.model(): bad record " + k + ": " + e, e);
+		}
+		if (ret == null) throw new IOException("Failed FloorBundle.model(): bad record " + k);
+		return ret;
+	}
+	
+	static void write(String name, int numAnchors, ModelFile[] modelX, ModelFile[] modelY, long[] stamp) {
+		// write a bundle of the given models; like a ModelCache entry it goes through a temporary file.
+		// stamp is the stamp() of the models' training files, taken before the models were read
+		File file = new AndroidLog(name).file;
+		File tmp = new AndroidLog(name + ".tmp").file;
+		try{
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+			write(out, numAnchors, modelX, modelY, stamp);
+			out.close();
+			file.delete();
+			if (!tmp.renameTo(file)) tmp.delete();
+		}
+		catch(Exception e){
+			// not fatal, the models will be loaded one by one next time
+			System.out.println("Failed FloorBundle.write() " + e.getMessage());
+			tmp.delete();
+		}
+	}
+	
+	static void write(OutputStream out, int numAnchors, ModelFile[] modelX, ModelFile[] modelY, long[] stamp) throws IOException {
+		// write a bundle of the given models to out
+		int numModels = modelX.length + modelY.length;
+		byte[][] record = new byte[numModels][];
+		for (int k=0; k < numModels; k++)
+			record[k] = (k < modelX.length)? modelX[k].toBytes() : modelY[k-modelX.length].toBytes();
+		
+		ByteBuffer header = ByteBuffer.allocate(4*5 + 8*(numModels+1) + 8*STAMP_LENGTH);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(numAnchors);
+		header.putInt(modelX.length);
+		header.putInt(modelY.length);
+		long pos = header.capacity();
+		for (int k=0; k < numModels; k++) {
+			header.putLong(pos);
+			pos += record[k].length;
+		}
+		header.putLong(pos);
+		for (int i=0; i < STAMP_LENGTH; i++)
+			header.putLong(stamp[i]);
+		
+		out.write(header.array());
+		for (int k=0; k < numModels; k++)
+			out.write(record[k]);
+	}
+}
@@ -0,0 +1,146 @@
+package com.tracme.training;
+
+// random Fourier features of the RBF kernel, which compile a TrainingModel into a linear model (see
+// TrainingModel.setFourierFeatures())
+// For w drawn from N(0, 2*gamma*I) and b uniform in [0, 2*pi), E[2*cos(w.x+b)*cos(w.y+b)] = exp(-gamma*||x-y||^2).
+// With D such pairs (W, b) and z(x) = cos(W*x + b):
+//   sum_i alpha_i*k(sv_i, x) ~ (2/D) * sum_i alpha_i * z(sv_i).z(x) = weight.z(x)
+// so a model reduces to weight, D values computed once (weights()), and a query to one projection of the sample
+// and a dot product per model. Each kernel value is off by a random error of the order of 1/sqrt(D), so contains()
+// can change near the boundary; TestingTask.compareFourier() reports how often.
+// W and b only depend on gamma, D and the seed, so models with the same gamma share them (a Projection). The
+// features of a raw sample also depend on its scaling: they are computed once per query (and kept in the Query) for
+// all the models that share gamma and a ScaleRange (see SupportVectorPool.getFourierFeatures()), with the scaling
+// folded in:
+//   W*(factor.x + offset) + b = W*(factor.x) + shift, shift = W*offset + b
+
+import java.io.Serializable;
+import java.util.Random;
+
+class FourierFeatures implements Serializable {
+	private static final long serialVersionUID = 2270851406472861374L;
+	
+	// W and b of one gamma, numFeatures and seed
+	static class Projection implements Serializable {
+		private static final long serialVersionUID = -6010253908136377451L;
+		
+		private double gamma;
+		private int numFeatures;
+		private long seed;
+		private double[] w; // w[j*numFeatures + d]: attribute j of the d-th direction, so a sample attribute is one run
+		private double[] b; // phase of each feature
+		int numUsers; // models using the projection, through any range, which split its MemoryUsage
+		
+		Projection(double gamma1, int numFeatures1, long seed1, int numAttributes) {
+			gamma = gamma1;
+			numFeatures = numFeatures1;
+			seed = seed1;
+			Random random = new Random(seed);
+			double sigma = Math.sqrt(2*gamma);
+			w = new double[numAttributes*numFeatures];
+			for (int k=0; k < w.length; k++)
+				w[k] = sigma*random.nextGaussian();
+			b = new double[numFeatures];
+			for (int d=0; d < numFeatures; d++)
+				b[d] = 2*Math.PI*random.nextDouble();
+		}
+		
+		boolean sameProjection(double gamma1, int numFeatures1, long seed1, int numAttributes) {
+			return gamma == gamma1 && numFeatures == numFeatures1 && seed == seed1 && w.length == numAttributes*numFeatures;
+		}
+		
+		long memoryBytes() {
+			return MemoryUsage.object(8*2 + 4*2 + 2*MemoryUsage.REFERENCE) + MemoryUsage.of(w) + MemoryUsage.of(b);
+		}
+	}
+	
+	private Projection projection;
+	private ScaleRange range;
+	private double[] shift; // W*offset + b: the projection of the scaled all-zero sample
+	int numUsers; // models using these features (see SupportVectorPool.getFourierFeatures), which split its MemoryUsage
+	
+	FourierFeatures(Projection projection1, ScaleRange range1) {
+		projection = projection1;
+		range = range1;
+		int numFeatures = projection.numFeatures;
+		shift = projection.b.clone();
+		for (int j=0; j < range.numAttributes(); j++) {
+			double o = range.offset[j];
+			if (o == 0) continue;
+			int base = j*numFeatures;
+			for (int d=0; d < numFeatures; d++)
+				shift[d] += projection.w[base + d]*o;
+		}
+	}
+	
+	Projection projection() {
+		return projection;
+	}
+	
+	ScaleRange range() {
+		return range;
+	}
+	
+	double[] weights(int[] sv_start, int[] sv_index, double[] sv_value, double[] sv_coef) {
+		// weight of a model with the given SVs (CSR arrays of the .model file, already scaled) and alphas
+		int numFeatures = projection.numFeatures;
+		double[] w = projection.w;
+		double[] ret = new double[numFeatures];
+		double[] t = new double[numFeatures];
+		for (int i=0; i < sv_coef.length; i++) {
+			System.arraycopy(projection.b, 0, t, 0, numFeatures);
+			for (int k=sv_start[i]; k < sv_start[i+1]; k++) {
+				double v = sv_value[k];
+				int base = sv_index[k]*numFeatures;
+				for (int d=0; d < numFeatures; d++)
+					t[d] += v*w[base + d];
+			}
+			double c = 2*sv_coef[i]/numFeatures;
+			for (int d=0; d < numFeatures; d++)
+				ret[d] += c*Math.cos(t[d]);
+		}
+		return ret;
+	}
+	
+	double dot(double[] weight, Query q) {
+		// weight.z(a) for the raw sample a of q, i.e. the approximate sum(alpha*k) of the model of weight; z(a) is
+		// computed by the first model of q using these features
+		double[] z = (double[]) q.get(this);
+		if (z == null) {
+			z = features(q.sample);
+			q.put(this, z);
+		}
+		double ret = 0;
+		for (int d=0; d < z.length; d++)
+			ret += weight[d]*z[d];
+		return ret;
+	}
+	
+	private double[] features(SparseSample a) {
+		// z(scaled a): only the attributes a lists move away from shift
+		int numFeatures = projection.numFeatures;
+		double[] w = projection.w;
+		double[] t = shift.clone();
+		for (int m=0; m < a.size; m++) {
+			int j = a.index[m];
+			double v = range.factor[j]*a.value[m]; // scaled value - offset
+			if (v == 0) continue;
+			int base = j*numFeatures;
+			for (int d=0; d < numFeatures; d++)
+				t[d] += v*w[base + d];
+		}
+		for (int d=0; d < numFeatures; d++)
+			t[d] = Math.cos(t[d]);
+		return t;
+	}
+	
+	long memoryBytes() {
+		// these features without their Projection, which is counted apart
+		return MemoryUsage.object(4 + 3*MemoryUsage.REFERENCE) + MemoryUsage.of(shift);
+	}
+	
+	long memoryShare() {
+		// the share of one model using these features, its share of the Projection included
+		return MemoryUsage.share(memoryBytes(), 1, numUsers) + MemoryUsage.share(projection.memoryBytes(), 1, projection.numUsers);
+	}
+}
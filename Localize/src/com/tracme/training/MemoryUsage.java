@@ -0,0 +1,98 @@
+package com.tracme.training;
+
+// memory retained by loaded models, by kind; see TrainingModel.memoryUsage() and TestingTask.memoryUsage()
+// Sizes are approximate. They follow the object layout of ART: 8-byte object header, 12-byte array header (with the
+// length), 4-byte references, everything aligned to 8 bytes. Dalvik starts the data of every array at offset 16, so
+// there an int[], float[] or byte[] can take up to 8 bytes more than counted; that is little next to the arrays of a
+// model, which hold nearly all of it. Field packing of the few small objects around them differs between runtimes too.
+// Structures shared by several models (a ScaleRange, a SupportVectorPool group) are split among them in proportion
+// to their use, so the shares of all the models add up to the whole, give or take a byte of rounding per model.
+
+public class MemoryUsage {
+	static final int OBJECT_HEADER = 8;
+	static final int ARRAY_HEADER = 12;
+	static final int REFERENCE = 4;
+	// Android's allocateDirect() returns a non-movable byte[] on the Java heap
+	static final boolean DIRECT_ON_HEAP = "Dalvik".equals(System.getProperty("java.vm.name"));
+
+	public int numModels; // loaded models counted
+	public long supportVectors; // SVs, alphas and per-SV terms kept by each model's storage, on the heap
+	public long scaleTables; // scaling data: shared ScaleRanges and FourierFeatures, the tables of STORAGE_FLOAT and STORAGE_INT8
+	public long pool; // SupportVectorPool groups of STORAGE_POOLED: shared SVs, hash tables, kernel and distance caches
+	public long other; // model objects, suffix sums of the alphas, Fourier weights, labels and file names, model lists
+	public long directBuffers; // direct buffers of STORAGE_DIRECT: on the Java heap on Android, outside it elsewhere
+	public long mapped; // mapped FloorBundle; clean file pages the OS can drop, not counted in total()
+
+	public long heap() {
+		long ret = supportVectors + scaleTables + pool + other;
+		return DIRECT_ON_HEAP? ret + directBuffers : ret;
+	}
+
+	public long total() {
+		// memory the app pays for: heap and direct buffers
+		return supportVectors + scaleTables + pool + other + directBuffers;
+	}
+
+	public void add(MemoryUsage u) {
+		numModels += u.numModels;
+		supportVectors += u.supportVectors;
+		scaleTables += u.scaleTables;
+		pool += u.pool;
+		other += u.other;
+		directBuffers += u.directBuffers;
+		mapped += u.mapped;
+	}
+
+	public String toString() {
+		return numModels + " models: " + total() + " bytes (heap " + heap() + ": support vectors " + supportVectors +
+				", scale tables " + scaleTables + ", pool " + pool + ", other " + other + (DIRECT_ON_HEAP? ", " : "; off-heap ") +
+				"direct buffers " + directBuffers + "; mapped " + mapped + ")";
+	}
+
+	static long align(long n) {
+		return (n + 7) & ~7L;
+	}
+
+	static long object(int fieldBytes) {
+		// an object whose fields (including those of its superclasses) take fieldBytes
+		return align(OBJECT_HEADER + fieldBytes);
+	}
+
+	static long array(int elementSize, int length) {
+		return align(ARRAY_HEADER + (long) elementSize * length);
+	}
+
+	static long of(double[] a) {
+		return (a == null)? 0 : array(8, a.length);
+	}
+
+	static long of(float[] a) {
+		return (a == null)? 0 : array(4, a.length);
+	}
+
+	static long of(int[] a) {
+		return (a == null)? 0 : array(4, a.length);
+	}
+
+	static long of(byte[] a) {
+		return (a == null)? 0 : array(1, a.length);
+	}
+
+	static long of(double[][] a) {
+		if (a == null) return 0;
+		long ret = array(REFERENCE, a.length);
+		for (int i=0; i < a.length; i++)
+			ret += of(a[i]);
+		return ret;
+	}
+
+	static long of(String s) {
+		// a String object (count, hash, value) and its char array
+		return (s == null)? 0 : object(12) + array(2, s.length());
+	}
+
+	static long share(long bytes, long part, long whole) {
+		// the part/whole share of bytes
+		return (whole <= 0)? bytes : bytes * part / whole;
+	}
+}
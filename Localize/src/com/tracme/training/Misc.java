@@ -143,16 +143,21 @@ public class Misc {
 			
     		for (int numClasses = 10; numClasses <= 100; numClasses += 10) {    	
     			String summaryFile = trainFile + "_dir/" + dimension + numClasses + "/summary.csv";
-    			DataInputStream in = new DataInputStream(new FileInputStream(summaryFile));
-    			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-    			
-    			double E = new Double(br.readLine().split("=")[1]);
+    			TextScanner in = TextScanner.open(summaryFile);
+    			double E;
+    			try {
+    				in.nextLine();
+    				in.find("=");
+    				E = in.nextDouble();
+    			}
+    			finally {
+    				in.close();
+    			}
     			if (minError > E) {
     				minError = E;
     				ret = numClasses;
     			}
      			outputT.writeBytes(numClasses + ";" + E + "\n");
-    			in.close();
     		}
  			outputT.writeBytes("Best #classes for dimension " + dimension + "=" + ret);
 			outputT.close();
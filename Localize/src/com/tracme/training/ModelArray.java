@@ -0,0 +1,200 @@
+package com.tracme.training;
+
+// the models of one dimension (X or Y) of a TestingTask, loaded the first time they are asked for
+// A stripe search only visits about log2(n)+1 of the n models per query, and mostly the same ones,
+// so loading them on demand brings the first fix after a handful of loads instead of all of them.
+// TestingTask can load the rest in a background thread (loadAll()), in the order of the search tree:
+// the models every search visits first (level 0: model 0 and the root pivot), then the quartiles (level 1), etc.
+// Models only become visible under the pool's lock, which queries hold (see TestingTask.getEstLocation()),
+// so a query never sees the pool change under it.
+
+import java.io.IOException;
+import java.io.Serializable;
+
+class ModelArray implements Serializable {
+	private static final long serialVersionUID = 6958121434367207862L;
+	
+	private String[] trainFile; // training file of each model, see TestingTask.modelFile()
+	private TrainingModel[] model; // null until loaded
+	transient private FloorBundle bundle; // where to read the models from; null to load each from its own files
+	private boolean isX; // X models of the bundle, or Y models
+	private int numAnchors;
+	private int storage;
+	private SupportVectorPool pool;
+	private ExpFunction expFunction;
+	private double expMargin;
+	private int numFeatures; // random Fourier features of the linear models, 0 to evaluate the kernels; see setFourierFeatures()
+	private long fourierSeed;
+	private double fourierMargin;
+	private int[] level; // level of each model in the search tree of TestingTask.getClassID()
+	private int numLevels;
+	
+	ModelArray(String[] trainFile1, FloorBundle bundle1, boolean dimensionX, int numAnchors1, int storage1, SupportVectorPool pool1) {
+		trainFile = trainFile1;
+		model = new TrainingModel[trainFile.length];
+		bundle = bundle1;
+		isX = dimensionX;
+		numAnchors = numAnchors1;
+		storage = storage1;
+		pool = pool1;
+		
+		// model 0 is asked first, then the pivots of the binary search on 0 .. n-1;
+		// model n-1 is only used by getClassID_Enhanced(), it goes last
+		level = new int[model.length];
+		numLevels = 1;
+		setLevels(0, model.length-1, 0);
+		if (model.length > 1) level[model.length-1] = numLevels++;
+	}
+	
+	private void setLevels(int lo, int hi, int depth) {
+		if (hi - lo <= 1) return;
+		int mid = (lo + hi) / 2;
+		level[mid] = depth;
+		numLevels = Math.max(numLevels, depth+1);
+		setLevels(lo, mid, depth+1);
+		setLevels(mid, hi, depth+1);
+	}
+	
+	int numLevels() {
+		return numLevels;
+	}
+	
+	int[] levelModels(int lv) {
+		// indices of the models on level lv
+		int n = 0;
+		for (int i=0; i < model.length; i++)
+			if (level[i] == lv) n++;
+		int[] ret = new int[n];
+		n = 0;
+		for (int i=0; i < model.length; i++)
+			if (level[i] == lv) ret[n++] = i;
+		return ret;
+	}
+	
+	int length() {
+		return model.length;
+	}
+	
+	TrainingModel get(int i) {
+		// the i-th model, loaded if needed; a model that cannot be loaded in the middle of a query is a runtime error
+		try{
+			return load(i);
+		}
+		catch(IOException e){
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+	
+	TrainingModel load(int i) throws IOException {
+		// the i-th model, loaded if needed. It is read and built outside the pool's lock so that several threads
+		// can load models at once; the pool locks itself where models share state
+		synchronized (pool) {
+			if (model[i] != null) return model[i];
+		}
+		ModelFile file = file(i);
+		TrainingModel ret = new TrainingModel(trainFile[i], numAnchors, storage, pool, file);
+		while (true) {
+			int numFeatures1;
+			long seed1;
+			synchronized (pool) {
+				if (model[i] != null) {
+					// another thread loaded it meanwhile: ret is dropped, with what it registered in the pool
+					ret.release();
+					return model[i];
+				}
+				numFeatures1 = numFeatures;
+				seed1 = fourierSeed;
+			}
+			FourierFeatures f = ret.getFourierFeatures(numFeatures1, seed1);
+			double[] weight = ret.fourierWeights(f, file);
+			synchronized (pool) {
+				// another thread may have loaded it meanwhile, or setFourierFeatures() changed the features
+				if (model[i] == null && numFeatures1 == numFeatures && seed1 == fourierSeed) {
+					ret.setExpFunction(expFunction, expMargin);
+					ret.setFourierFeatures(f, weight, fourierMargin);
+					model[i] = ret;
+					return ret;
+				}
+				if (f != null) pool.releaseFourierFeatures(f);
+			}
+		}
+	}
+	
+	ModelFile file(int i) throws IOException {
+		// the file contents of the i-th model, whether it is loaded or not
+		if (bundle != null) return isX? bundle.modelX(i) : bundle.modelY(i);
+		return ModelFile.load(trainFile[i], numAnchors);
+	}
+	
+	boolean isLoaded(int i) {
+		synchronized (pool) {
+			return model[i] != null;
+		}
+	}
+	
+	void loadLevel(int lv) throws IOException {
+		// load the models of one level of the search tree, one at a time
+		for (int i=0; i < model.length; i++)
+			if (level[i] == lv) load(i);
+	}
+	
+	void loadAll() throws IOException {
+		for (int lv=0; lv < numLevels; lv++)
+			loadLevel(lv);
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		// add the loaded models and the array itself to u; with shares, the models' shares of the pool and
+		// this dimension's share of the mapped bundle
+		synchronized (pool) {
+			u.other += MemoryUsage.object(4*4 + 8*3 + 1 + 6*MemoryUsage.REFERENCE) + MemoryUsage.array(MemoryUsage.REFERENCE, trainFile.length) +
+					MemoryUsage.array(MemoryUsage.REFERENCE, model.length) + MemoryUsage.of(level);
+			for (int i=0; i < model.length; i++) {
+				u.other += MemoryUsage.of(trainFile[i]);
+				if (model[i] != null) model[i].memoryUsage(u, shares);
+			}
+			if (shares && bundle != null) u.mapped += MemoryUsage.share(bundle.size(), model.length, bundle.numModels());
+		}
+	}
+	
+	long mappedBytes() {
+		// size of the bundle the models are read from, 0 if there is none
+		return (bundle == null)? 0 : bundle.size();
+	}
+	
+	void setExpFunction(ExpFunction expFunction1, double expMargin1) {
+		// applies to the models already loaded and to those loaded later
+		synchronized (pool) {
+			expFunction = expFunction1;
+			expMargin = expMargin1;
+			for (int i=0; i < model.length; i++)
+				if (model[i] != null) model[i].setExpFunction(expFunction, expMargin);
+		}
+	}
+	
+	void setFourierFeatures(int numFeatures1, long seed1, double margin1) throws IOException {
+		// compile the models into linear models (see TrainingModel.setFourierFeatures()), those already loaded
+		// and those loaded later; numFeatures1 = 0 goes back to the kernels.
+		// The weights of a loaded model are computed outside the pool's lock, so queries go on meanwhile with the
+		// model as it was, and swapped in under it
+		synchronized (pool) {
+			numFeatures = numFeatures1;
+			fourierSeed = seed1;
+			fourierMargin = margin1;
+		}
+		for (int i=0; i < model.length; i++) {
+			TrainingModel m;
+			synchronized (pool) {
+				m = model[i];
+			}
+			if (m == null) continue; // load() compiles it
+			FourierFeatures f = m.getFourierFeatures(numFeatures1, seed1);
+			double[] weight = m.fourierWeights(f, file(i));
+			synchronized (pool) {
+				// unless a later call changed the features again
+				if (numFeatures1 == numFeatures && seed1 == fourierSeed && margin1 == fourierMargin) m.setFourierFeatures(f, weight, margin1);
+				else if (f != null) pool.releaseFourierFeatures(f);
+			}
+		}
+	}
+}
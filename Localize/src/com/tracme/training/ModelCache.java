@@ -0,0 +1,176 @@
+package com.tracme.training;
+
+// compiled models (ModelFile records), stored once per content and shared by every floor and training set
+// An entry is named after a SHA-1 of the text files it was compiled from (.model, .range and .log) and the number of
+// anchors, so floor entries built from the same data (see LoadActivity) or with identical stripe models read the
+// same file, and a retrained model gets a new name: an entry is never stale, it is just no longer asked for.
+// Each model keeps its entry's name in trainFile + ".key" along with the length and modification time of each text
+// file it was hashed from; the key is trusted while all six match exactly, so the text files are only hashed again
+// after they change. Any difference counts, an older time too, so retrained files copied with their times (unzip,
+// cp -p, adb push) are hashed again; only a rewrite to the same length within the time granularity of the file
+// system (2 s on vfat) goes unnoticed.
+// A retrained model leaves its old entry behind; entries that are not read for MAX_AGE are deleted by prune(),
+// which TestingTask.buildBundle() calls when a floor's bundle is rebuilt, i.e. after its models changed.
+//
+// files (in the AndroidLog directory):
+//   DIR/<key>.bin   a ModelFile record, see ModelFile.toBytes(); its modification time is the last time it was read
+//   trainFile.key   the key of the model's entry (40 ASCII hex digits), then stamp() (6 big-endian longs)
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import com.tracme.util.*;
+
+class ModelCache {
+	static final String DIR = "model_cache";
+	static final String[] EXT = {".model", ".range", ".log"}; // the text files of a model
+	static final long MAX_AGE = 30L*24*3600*1000; // entries not read for this long (ms) are deleted by prune()
+	
+	static String key(String trainFile, int numAnchors) throws IOException {
+		// the key of the model's entry; hashes the text files unless trainFile.key is up to date
+		// the stamp is taken before hashing, so a file that changes meanwhile is hashed again next time
+		long[] stamp = stamp(trainFile);
+		String ret = readKey(trainFile, stamp);
+		if (ret == null) {
+			ret = hash(trainFile, numAnchors);
+			writeKey(trainFile, ret, stamp);
+		}
+		return ret;
+	}
+	
+	static long[] stamp(String trainFile) {
+		// length and modification time of each text file of the model, in the order of EXT (0 for a missing file)
+		long[] ret = new long[2*EXT.length];
+		for (int i=0; i < EXT.length; i++) {
+			File file = new AndroidLog(trainFile + EXT[i]).file;
+			ret[2*i] = file.length();
+			ret[2*i+1] = file.lastModified();
+		}
+		return ret;
+	}
+	
+	private static String readKey(String trainFile, long[] stamp) {
+		// the key in trainFile.key if it was written with the given stamp; null otherwise
+		File file = new AndroidLog(trainFile + ".key").file;
+		if (file.length() != 40 + 8*2*EXT.length) return null; // missing, or written by an older version
+		try{
+			byte[] data = new byte[(int) file.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			in.readFully(data);
+			in.close();
+			ByteBuffer buf = ByteBuffer.wrap(data, 40, data.length - 40);
+			for (int i=0; i < stamp.length; i++)
+				if (buf.getLong() != stamp[i]) return null;
+			return new String(data, 0, 40, "US-ASCII");
+		}
+		catch(Exception e){
+			return null;
+		}
+	}
+	
+	private static void writeKey(String trainFile, String key, long[] stamp) {
+		try{
+			ByteBuffer buf = ByteBuffer.allocate(40 + 8*stamp.length);
+			buf.put(key.getBytes("US-ASCII"));
+			for (int i=0; i < stamp.length; i++)
+				buf.putLong(stamp[i]);
+			FileOutputStream out = new FileOutputStream(new AndroidLog(trainFile + ".key").file);
+			out.write(buf.array());
+			out.close();
+		}
+		catch(Exception e){
+			// not fatal, the text files will be hashed again next time
+			System.out.println("Failed ModelCache.writeKey() " + e.getMessage());
+		}
+	}
+	
+	private static String hash(String trainFile, int numAnchors) throws IOException {
+		MessageDigest md;
+		try{
+			md = MessageDigest.getInstance("SHA-1");
+		}
+		catch(NoSuchAlgorithmException e){
+			throw new IOException("Failed ModelCache.hash(): " + e, e);
+		}
+		// the number of anchors and the files' lengths are part of the content, so that no two contents run together
+		ByteBuffer header = ByteBuffer.allocate(4 + 8*EXT.length);
+		header.putInt(numAnchors);
+		File[] file = new File[EXT.length];
+		for (int i=0; i < EXT.length; i++) {
+			file[i] = new AndroidLog(trainFile + EXT[i]).file;
+			header.putLong(file[i].length());
+		}
+		md.update(header.array());
+		byte[] buf = new byte[16*1024];
+		for (int i=0; i < EXT.length; i++) {
+			InputStream in = new FileInputStream(file[i]);
+			try{
+				int n;
+				while ((n = in.read(buf)) > 0)
+					md.update(buf, 0, n);
+			}
+			finally{
+				in.close();
+			}
+		}
+		
+		byte[] digest = md.digest();
+		StringBuilder ret = new StringBuilder();
+		for (int i=0; i < digest.length; i++)
+			ret.append(Character.forDigit((digest[i] >> 4) & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+		return ret.toString();
+	}
+	
+	static ModelFile get(String key, int numAnchors) {
+		// the entry of the given key; null if there is none or it is damaged
+		File file = new AndroidLog(DIR + "/" + key + ".bin").file;
+		if (!file.exists()) return null;
+		try{
+			byte[] data = new byte[(int) file.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			in.readFully(data);
+			in.close();
+			ModelFile ret = ModelFile.read(ByteBuffer.wrap(data), numAnchors);
+			file.setLastModified(System.currentTimeMillis()); // still in use, see prune()
+			return ret;
+		}
+		catch(Exception e){
+			// a truncated or damaged file: the text files are read again and the entry rewritten
+			System.out.println("Failed ModelCache.get() " + e.getMessage());
+			return null;
+		}
+	}
+	
+	static void put(String key, ModelFile model) {
+		// write the entry of the given key; it is written to a temporary file first so a reader never sees half a model.
+		// Threads compiling the same model at once write the same bytes, each through its own temporary file
+		File dir = new AndroidLog(DIR).file;
+		File file = new File(dir, key + ".bin");
+		File tmp = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+		try{
+			dir.mkdirs();
+			FileOutputStream out = new FileOutputStream(tmp);
+			out.write(model.toBytes());
+			out.close();
+			if (!tmp.renameTo(file)) tmp.delete();
+		}
+		catch(Exception e){
+			// not fatal, the text files will be read again next time
+			System.out.println("Failed ModelCache.put() " + e.getMessage());
+			tmp.delete();
+		}
+	}
+	
+	static void prune() {
+		// delete the entries that were not read for MAX_AGE, and temporary files left by a crash; an entry deleted
+		// while it is still needed (a floor not opened for a month) is only compiled again
+		File[] files = new AndroidLog(DIR).file.listFiles();
+		if (files == null) return;
+		long now = System.currentTimeMillis();
+		for (int i=0; i < files.length; i++) {
+			long age = now - files[i].lastModified();
+			if (age > MAX_AGE || (files[i].getName().endsWith(".tmp") && age > 3600*1000)) files[i].delete();
+		}
+	}
+}
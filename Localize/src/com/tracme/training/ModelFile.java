@@ -0,0 +1,316 @@
+package com.tracme.training;
+
+// contents of a model's .model, .range and .log files, as needed by TrainingModel
+// Parsing the three text files is slow on a phone (three file opens and a number parse per feature),
+// so the first load of a model also writes a compiled record to the ModelCache, which later loads read
+// with a few bulk reads, whichever floor the model belongs to.
+//
+// record layout (big-endian, as written by ByteBuffer):
+//   int MAGIC, int VERSION, int numAnchors
+//   double lo, double hi, double[2*numAnchors] attrRange (min and max of each attribute)
+//   double training_accuracy, double gamma, double rho
+//   int length of label, byte[] label (UTF-8)
+//   int total_sv, int nnz
+//   double[total_sv] sv_coef, int[total_sv+1] sv_start, int[nnz] sv_index, double[nnz] sv_value
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import com.tracme.util.*;
+
+class ModelFile {
+	static final int MAGIC = 0x4C53564D; // "LSVM"
+	static final int VERSION = 1;
+	
+	int numAnchors;
+	double lo, hi; // low and high bounds for scaling
+	double[][] attrRange; // range of each attribute in a sample
+	double training_accuracy; // accuracy of SVM training
+	double gamma;
+	double rho;
+	String label; // first label of the model, "1" or "-1"
+	int total_sv; // number of support vectors
+	// support vectors in compressed sparse row (CSR) form as they appear in the .model file, see DoubleSupportVectors;
+	// null when there is no SV
+	double[] sv_coef;
+	int[] sv_start;
+	int[] sv_index;
+	double[] sv_value;
+	// the whole one-vs-one model of a multi-class .model file (see MultiClassModel); the compiled record only has
+	// the first decision, so sv_coefs is only read by readMultiClass()
+	int nr_class;
+	int[] labels; // label of each class
+	int[] nr_sv; // number of SVs of each class; the SVs are grouped by class in this order
+	double[] rhos; // rho of each pairwise decision, in the order (0,1), (0,2), .., (1,2), ..
+	double[][] sv_coefs; // sv_coefs[c]: the (c+1)-th coefficient of each SV, c < nr_class-1; sv_coefs[0] is sv_coef
+	private boolean allCoefs;
+	
+	static ModelFile load(String trainFile, int numAnchors) throws IOException {
+		// the compiled model from the cache if there is one for the content of the text files, otherwise
+		// the text files (compiled into the cache for next time)
+		String key;
+		try{
+			key = ModelCache.key(trainFile, numAnchors);
+		}
+		catch(IOException e){
+			throw failure("load()", trainFile, e);
+		}
+		ModelFile ret = ModelCache.get(key, numAnchors);
+		if (ret == null) {
+			ret = readText(trainFile, numAnchors);
+			ModelCache.put(key, ret);
+		}
+		return ret;
+	}
+	
+	static ModelFile readText(String trainFile, int numAnchors) throws IOException {
+		ModelFile ret = new ModelFile();
+		ret.numAnchors = numAnchors;
+		ret.readScaleParameters(trainFile);
+		ret.readModelParameters(trainFile);
+		ret.readTrainingAccuracy(trainFile);
+		return ret;
+	}
+	
+	static ModelFile readMultiClass(String trainFile, int numAnchors) throws IOException {
+		// the .model file, with all the coefficients of each SV, and the .range file
+		ModelFile ret = new ModelFile();
+		ret.numAnchors = numAnchors;
+		ret.allCoefs = true;
+		ret.readScaleParameters(trainFile);
+		ret.readModelParameters(trainFile);
+		return ret;
+	}
+	
+	private static TextScanner open(String name) throws IOException {
+		// a missing file is reported to the caller, not fatal
+		return TextScanner.open(new AndroidLog(name).file);
+	}
+	
+	private static IOException failure(String method, String name, Exception e) {
+		// parse errors (bad numbers, missing lines) become IOExceptions naming the file
+		return new IOException("Failed " + method + " " + name + ": " + e, e);
+	}
+	
+	private static void nextLine(TextScanner in) throws IOException {
+		if (!in.nextLine()) throw new EOFException("file too short");
+	}
+	
+	private void readScaleParameters(String trainFile) throws IOException {
+		lo=hi=0;
+		attrRange=new double[numAnchors][2];
+		
+		try{
+			TextScanner in = open(trainFile + ".range");
+			
+			nextLine(in); // skip 1st line
+			
+			// read low and hi
+			nextLine(in);
+			lo=in.nextDouble();
+			hi=in.nextDouble();
+			// read range for each attribute
+			while (in.nextLine()) {
+				if (!in.hasNext()) continue;
+				int i = in.nextInt()-1; // index starts at zero
+				attrRange[i][0]=in.nextDouble();
+				attrRange[i][1]=in.nextDouble();
+			}
+			in.close();
+		}
+		catch(Exception e){
+			throw failure("readScaleParameters()", trainFile + ".range", e);
+		}
+	}
+	
+	private void readTrainingAccuracy(String trainFile) throws IOException {
+		try{
+			TextScanner in = open(trainFile + ".log");
+			
+			nextLine(in);
+			nextLine(in);
+			nextLine(in);
+			
+			if (!in.find("rate=")) throw new IOException("no training rate");
+			training_accuracy = in.nextDouble();
+			in.close();
+		}
+		catch(Exception e){
+			throw failure("readTrainingAccuracy()", trainFile + ".log", e);
+		}
+	}
+	
+	private void readModelParameters(String trainFile) throws IOException {
+		try{
+			TextScanner in = open(trainFile + ".model");
+			
+			// header lines up to the "SV" line, by keyword; lines the models do not need (svm_type, kernel_type,
+			// probA, probB, ...) are skipped
+			int nr_class = 2;
+			while (in.nextLine()) {
+				if (!in.hasNext()) continue;
+				if (in.startsWith("SV")) break;
+				String key = in.nextToken();
+				if (key.equals("gamma")) gamma=in.nextDouble();
+				else if (key.equals("nr_class")) nr_class=in.nextInt();
+				else if (key.equals("total_sv")) total_sv=in.nextInt();
+				else if (key.equals("rho")) {
+					rhos=new double[nr_class*(nr_class-1)/2];
+					for (int p=0;p<rhos.length && in.hasNext();p++)
+						rhos[p]=in.nextDouble();
+					if (total_sv > 0 && rhos.length > 0) rho=rhos[0];
+				}
+				else if (key.equals("label")) {
+					label = in.nextToken();
+					// a model trained on one class only lists that label, whatever nr_class says
+					labels=new int[nr_class];
+					labels[0]=Integer.parseInt(label);
+					int c=1;
+					for (;c<nr_class && in.hasNext();c++)
+						labels[c]=in.nextInt();
+					labels=Arrays.copyOf(labels, c);
+				}
+				else if (key.equals("nr_sv")) {
+					nr_sv=new int[nr_class];
+					for (int c=0;c<nr_class && in.hasNext();c++)
+						nr_sv[c]=in.nextInt();
+				}
+			}
+			this.nr_class = nr_class;
+			
+			if (total_sv > 0) {
+				sv_coef=new double[total_sv];
+				if (allCoefs) {
+					sv_coefs=new double[nr_class-1][];
+					sv_coefs[0]=sv_coef;
+					for (int c=1;c<nr_class-1;c++)
+						sv_coefs[c]=new double[total_sv];
+				}
+				sv_start=new int[total_sv+1];
+				// first guess for the number of non-zeros; grown below if the model is denser
+				sv_index=new int[total_sv*Math.min(numAnchors, 16)];
+				sv_value=new double[sv_index.length];
+				int nnz=0;
+				
+				for (int i=0;i<total_sv;i++){
+					nextLine(in);
+					
+					// the first (nr_class-1) values are for coefficient "alpha" in SVM formula
+					// for binary classification, only the first value is needed
+					sv_coef[i]=in.nextDouble(); // "alpha" value in our SVM formula
+					for (int j=2;j<nr_class;j++) {
+						if (allCoefs) sv_coefs[j-1][i]=in.nextDouble();
+						else in.skipToken();
+					}
+					
+					// read support vector; feature indices in the file start at 1
+					sv_start[i]=nnz;
+					while (in.hasNext()) {
+						if (nnz == sv_index.length) {
+							int newLength=2*sv_index.length+1;
+							sv_index=Arrays.copyOf(sv_index, newLength);
+							sv_value=Arrays.copyOf(sv_value, newLength);
+						}
+						sv_index[nnz]=in.nextInt()-1;
+						if (!in.skip(':')) throw new NumberFormatException("missing ':' in SV " + i);
+						sv_value[nnz]=in.nextDouble();
+						nnz++;
+					}
+				}
+				sv_start[total_sv]=nnz;
+				sv_index=Arrays.copyOf(sv_index, nnz);
+				sv_value=Arrays.copyOf(sv_value, nnz);
+			}
+			// with zero support vector there is no need to read the rest
+			in.close();
+		}
+		catch(Exception e){
+			throw failure("readModelParameters()", trainFile + ".model", e);
+		}
+	}
+	
+	static ModelFile read(ByteBuffer buf, int numAnchors) throws IOException {
+		// read a compiled model record from buf's position; null if it is not a model for numAnchors anchors
+		if (buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getInt() != numAnchors) return null;
+		ModelFile ret = new ModelFile();
+		ret.numAnchors = numAnchors;
+		ret.lo = buf.getDouble();
+		ret.hi = buf.getDouble();
+		double[] range = getDoubles(buf, 2*numAnchors);
+		ret.attrRange = new double[numAnchors][];
+		for (int i=0; i < numAnchors; i++)
+			ret.attrRange[i] = Arrays.copyOfRange(range, 2*i, 2*i+2);
+		ret.training_accuracy = buf.getDouble();
+		ret.gamma = buf.getDouble();
+		ret.rho = buf.getDouble();
+		byte[] label = new byte[buf.getInt()];
+		buf.get(label);
+		ret.label = new String(label, "UTF-8");
+		ret.total_sv = buf.getInt();
+		int nnz = buf.getInt();
+		if (ret.total_sv > 0) {
+			ret.sv_coef = getDoubles(buf, ret.total_sv);
+			ret.sv_start = getInts(buf, ret.total_sv+1);
+			ret.sv_index = getInts(buf, nnz);
+			ret.sv_value = getDoubles(buf, nnz);
+		}
+		return ret;
+	}
+	
+	byte[] toBytes() throws IOException {
+		// the compiled record of the model, as stored in the ModelCache
+		int nnz = (total_sv > 0)? sv_start[total_sv] : 0;
+		byte[] labelBytes = label.getBytes("UTF-8");
+		int size = 4*3 + 8*2 + 8*2*numAnchors + 8*3 + 4+labelBytes.length + 4*2;
+		if (total_sv > 0) size += 8*total_sv + 4*(total_sv+1) + 4*nnz + 8*nnz;
+		
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putInt(numAnchors);
+		buf.putDouble(lo);
+		buf.putDouble(hi);
+		for (int i=0; i < numAnchors; i++) {
+			buf.putDouble(attrRange[i][0]);
+			buf.putDouble(attrRange[i][1]);
+		}
+		buf.putDouble(training_accuracy);
+		buf.putDouble(gamma);
+		buf.putDouble(rho);
+		buf.putInt(labelBytes.length);
+		buf.put(labelBytes);
+		buf.putInt(total_sv);
+		buf.putInt(nnz);
+		if (total_sv > 0) {
+			putDoubles(buf, sv_coef, total_sv);
+			putInts(buf, sv_start, total_sv+1);
+			putInts(buf, sv_index, nnz);
+			putDoubles(buf, sv_value, nnz);
+		}
+		return buf.array();
+	}
+	
+	private static double[] getDoubles(ByteBuffer buf, int n) {
+		double[] ret = new double[n];
+		buf.asDoubleBuffer().get(ret);
+		buf.position(buf.position() + 8*n);
+		return ret;
+	}
+	
+	private static int[] getInts(ByteBuffer buf, int n) {
+		int[] ret = new int[n];
+		buf.asIntBuffer().get(ret);
+		buf.position(buf.position() + 4*n);
+		return ret;
+	}
+	
+	private static void putDoubles(ByteBuffer buf, double[] a, int n) {
+		buf.asDoubleBuffer().put(a, 0, n);
+		buf.position(buf.position() + 8*n);
+	}
+	
+	private static void putInts(ByteBuffer buf, int[] a, int n) {
+		buf.asIntBuffer().put(a, 0, n);
+		buf.position(buf.position() + 4*n);
+	}
+}
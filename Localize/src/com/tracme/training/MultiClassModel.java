@@ -0,0 +1,169 @@
+package com.tracme.training;
+
+// a one-vs-one multi-class libsvm model (the grid and stripe models of TestingTask.predict_GridSVM() and
+// predict_StripeSVM()), evaluated in process instead of by the svm-predict program
+// Only the .model and .range files are read: none of the binary TrainingModel machinery (ModelCache entry, SVs
+// sorted by alpha, scaling folded into them) serves a multi-class model.
+// libsvm trains one binary SVM per pair of classes i < j on the SVs of the two classes, and predicts the class that
+// wins the most pairs. The SVs are grouped by class and an SV of class i takes part in the k-1 decisions of class i
+// with the same kernel value, so the kernel values of a sample are computed once per SV and shared by the k(k-1)/2
+// decisions. The kernel and the votes are computed as svm-predict does (Kernel::k_function() and
+// svm_predict_values()), so the predicted labels are those of svm-predict.
+
+import java.io.IOException;
+import java.util.Arrays;
+
+class MultiClassModel {
+	private int nr_class;
+	private int[] labels; // label of each class
+	private int[] start; // the SVs of class c are start[c] .. start[c+1]-1
+	private double[][] coef; // coef[c][i]: coefficient of SV i in the (c+1)-th decision of its class, c < nr_class-1
+	private double[] rho; // rho of each pairwise decision, in the order (0,1), (0,2), .., (1,2), ..
+	private double gamma;
+	private double lo, hi; // low and high bounds for scaling
+	private double[][] attrRange; // range of each attribute in a sample
+	// support vectors in CSR form, as in ModelFile
+	private int[] sv_start;
+	private int[] sv_index;
+	private double[] sv_value;
+	
+	MultiClassModel(ModelFile file) {
+		// file read by ModelFile.readMultiClass()
+		// a model of a single class lists one label
+		lo = file.lo;
+		hi = file.hi;
+		attrRange = file.attrRange;
+		labels = file.labels;
+		nr_class = labels.length;
+		rho = file.rhos;
+		gamma = file.gamma;
+		coef = file.sv_coefs;
+		sv_start = file.sv_start;
+		sv_index = file.sv_index;
+		sv_value = file.sv_value;
+		
+		start = new int[nr_class+1];
+		for (int c=0; c < nr_class; c++)
+			start[c+1] = start[c] + ((file.nr_sv == null)? 0 : file.nr_sv[c]);
+		if (start[nr_class] != file.total_sv) throw new IllegalArgumentException("nr_sv does not add up to total_sv");
+	}
+	
+	static MultiClassModel load(String trainFile, int numAnchors) throws IOException {
+		// the model of the given training file (its .model and .range files)
+		return new MultiClassModel(ModelFile.readMultiClass(trainFile, numAnchors));
+	}
+	
+	int predictLabel(SparseSample a) {
+		// label of a raw sample (as in the test files)
+		return predict(scale(a));
+	}
+	
+	int[] predictLabels(SparseSample[] samples) {
+		// predictLabel() of each sample, evaluated as one batch
+		SparseSample[] scaled = new SparseSample[samples.length];
+		for (int s=0; s < samples.length; s++)
+			scaled[s] = scale(samples[s]);
+		return predict(scaled);
+	}
+	
+	private SparseSample scale(SparseSample a) {
+		// scale a sample the way svm-scale does with the model's .range file
+		int[] index = new int[a.size];
+		double[] value = new double[a.size];
+		int n = 0;
+		for (int k=0; k < a.size; k++) {
+			int i = a.index[k];
+			if (attrRange[i][1]-attrRange[i][0] != 0) {
+				index[n] = i;
+				value[n++] = ((a.value[k]-attrRange[i][0])/(attrRange[i][1]-attrRange[i][0]))*(hi-lo)+lo;
+			}
+			else {
+				// in this case, the respective feature plays no role in the prediction
+			}
+		}
+		return new SparseSample(index, value, n);
+	}
+	
+	int predict(SparseSample a) {
+		// label of a scaled sample
+		return predict(new SparseSample[] {a})[0];
+	}
+	
+	int[] predict(SparseSample[] a) {
+		// labels of a batch of scaled samples
+		// the kernel values are computed by tiles of TrainingModel.BATCH_TILE SVs, each tile for every sample of the
+		// batch while the tile is in cache; k[s*total_sv + i] is the kernel value of sample s and SV i
+		int[] ret = new int[a.length];
+		if (nr_class == 1) {
+			for (int s=0; s < a.length; s++)
+				ret[s] = labels[0];
+			return ret;
+		}
+		
+		int total_sv = start[nr_class];
+		double[] k = new double[a.length * total_sv];
+		for (int i0=0; i0 < total_sv; i0+=TrainingModel.BATCH_TILE) {
+			int i1 = Math.min(i0+TrainingModel.BATCH_TILE, total_sv);
+			for (int s=0; s < a.length; s++)
+				for (int i=i0; i < i1; i++)
+					k[s*total_sv + i] = kernel(i, a[s]);
+		}
+		
+		int[] vote = new int[nr_class];
+		for (int s=0; s < a.length; s++) {
+			int base = s*total_sv;
+			Arrays.fill(vote, 0);
+			int p = 0;
+			for (int i=0; i < nr_class; i++) {
+				for (int j=i+1; j < nr_class; j++) {
+					// SVs of class i have their coefficient for (i,j) in coef[j-1], those of class j in coef[i]
+					double sum = 0;
+					double[] coef1 = coef[j-1];
+					for (int t=start[i]; t < start[i+1]; t++)
+						sum += coef1[t] * k[base + t];
+					double[] coef2 = coef[i];
+					for (int t=start[j]; t < start[j+1]; t++)
+						sum += coef2[t] * k[base + t];
+					sum -= rho[p++];
+					if (sum > 0) vote[i]++;
+					else vote[j]++;
+				}
+			}
+			
+			// first class with the most votes
+			int max = 0;
+			for (int c=1; c < nr_class; c++)
+				if (vote[c] > vote[max]) max = c;
+			ret[s] = labels[max];
+		}
+		return ret;
+	}
+	
+	private double kernel(int i, SparseSample a) {
+		// RBF kernel; the squared distance is summed over the union of the non-zeros, as in libsvm
+		int k = sv_start[i], kEnd = sv_start[i+1];
+		int m = 0, mEnd = a.size;
+		double sum = 0;
+		while (k < kEnd && m < mEnd) {
+			if (a.index[m] == sv_index[k]) {
+				double d = a.value[m] - sv_value[k];
+				sum += d*d;
+				k++;
+				m++;
+			}
+			else if (a.index[m] > sv_index[k]) {
+				sum += sv_value[k] * sv_value[k];
+				k++;
+			}
+			else {
+				sum += a.value[m] * a.value[m];
+				m++;
+			}
+		}
+		for (; m < mEnd; m++)
+			sum += a.value[m] * a.value[m];
+		for (; k < kEnd; k++)
+			sum += sv_value[k] * sv_value[k];
+		return Math.exp(-gamma * sum);
+	}
+}
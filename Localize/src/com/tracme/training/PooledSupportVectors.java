@@ -0,0 +1,55 @@
+package com.tracme.training;
+
+// support vectors of one model stored in a SupportVectorPool: the model only keeps pool ids and alphas
+
+class PooledSupportVectors extends SupportVectors {
+	private static final long serialVersionUID = -6290563714820427180L;
+	
+	private double[] sv_coef; // "alpha" value of each support vector
+	private int[] sv_id; // id of each support vector in the pool group
+	private SupportVectorPool.Group group;
+	private SupportVectorPool.KernelTable table; // kernel values for this model's gamma
+	
+	PooledSupportVectors(SupportVectorPool pool, int[] sv_start, int[] sv_index, double[] sv_value, double[] sv_coef1,
+			ScaleRange range, double gamma) {
+		total_sv = sv_coef1.length;
+		sv_coef = sv_coef1;
+		sv_id = new int[total_sv];
+		synchronized (pool) {
+			// models may be loaded by several threads at once
+			group = pool.getGroup(range);
+			table = group.getKernelTable(gamma);
+			for (int i=0; i < total_sv; i++)
+				sv_id[i] = group.add(sv_index, sv_value, sv_start[i], sv_start[i+1]);
+		}
+	}
+	
+	double coef(int i) {
+		return sv_coef[i];
+	}
+	
+	ScaledSample scale(Query q) {
+		// the group scales each query once for all of its models
+		return group.prepare(q);
+	}
+	
+	double sqDist(int i, ScaledSample a) {
+		return group.sqDist(sv_id[i], (SupportVectorPool.GroupSample) a);
+	}
+	
+	double kernelFunction(int i, ScaledSample a, double gamma) {
+		return table.kernel(sv_id[i], (SupportVectorPool.GroupSample) a);
+	}
+	
+	void release(SupportVectorPool pool) {
+		synchronized (pool) {
+			group.release(total_sv);
+		}
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		// the group's memory is split in proportion to the SVs each model added to it
+		u.supportVectors += MemoryUsage.object(4 + 4*MemoryUsage.REFERENCE) + MemoryUsage.of(sv_coef) + MemoryUsage.of(sv_id);
+		if (shares) u.pool += MemoryUsage.share(group.memoryBytes(), total_sv, group.numRefs());
+	}
+}
@@ -0,0 +1,139 @@
+package com.tracme.training;
+
+// support vectors quantized to one byte per attribute in the unscaled RSSI domain
+// a raw reading (result.level + 100) is a small non-negative integer, so instead of scaling it into [lo,hi]
+// each SV is mapped back to raw values and stored as bytes; scaling is linear, so
+//   ||scale(x) - scale(r)||^2 = sum_j w_j * (x_j - r_j)^2   with   w_j = ((hi-lo)/(max_j-min_j))^2
+// and the distance only needs integer differences, with w_j kept as fixed-point integers
+// Each w_j is rounded to a multiple of max(w)/2^WEIGHT_BITS, so it is off by at most 2^-(WEIGHT_BITS+1) * max(w)/w_j
+// of itself, where max(w)/w_j = (range_j/narrowest range)^2 < 2^16 for raw values in a byte. 16 bits gave 7.6% for
+// an AP whose range is a hundred times the narrowest one; 30 bits bound it by 3e-5 for any ranges, far below the
+// error of rounding the SVs to whole raw values. The sum stays exact: w_j <= 2^30, d*d < 2^16 and up to 2^17
+// attributes fit a long.
+// Expected input: raw values 0 .. MAX_RAW, as the app records them (level + 100, 0 for an unheard AP). A model
+// trained on other values, e.g. on dBm levels such as 1:-49, does not fit (see fits()) and TrainingModel stores it
+// as floats instead; a query value outside 0 .. MAX_RAW is rejected with an IllegalArgumentException rather than
+// clamped into a byte.
+
+class QuantizedSupportVectors extends SupportVectors {
+	private static final long serialVersionUID = -2195718334263860419L;
+	
+	private static final int WEIGHT_BITS = 30; // fixed-point precision of the weights, relative to the largest one
+	private static final int MAX_RAW = 255; // largest raw value that fits in a byte
+	
+	static class QuantizedScaledSample extends ScaledSample {
+		int[] raw; // raw value of each active attribute, rounded (to 0 .. MAX_RAW, see quantize())
+	}
+	
+	private double[] sv_coef; // "alpha" value of each support vector
+	private byte[] sv_raw; // raw SV values, row-major over the active attributes; read back with & 0xFF
+	private int numActive; // number of attributes whose range is not zero
+	private int[] activeIndex; // position of each attribute among the active ones, -1 if its range is zero
+	private int[] weight; // w_j of each active attribute, in units of weightUnit
+	private double weightUnit;
+	
+	QuantizedSupportVectors(int[] sv_start, int[] sv_index, double[] sv_value, double[] sv_coef1,
+			double[][] attrRange, double lo, double hi) {
+		total_sv = sv_coef1.length;
+		sv_coef = sv_coef1;
+		
+		// attributes with zero range are always scaled to 0 and play no role in the distance
+		int numAnchors = attrRange.length;
+		activeIndex = new int[numAnchors];
+		numActive = 0;
+		double maxWeight = 0;
+		for (int j=0; j < numAnchors; j++) {
+			double range = attrRange[j][1]-attrRange[j][0];
+			if (range != 0) {
+				activeIndex[j] = numActive++;
+				maxWeight = Math.max(maxWeight, ((hi-lo)/range)*((hi-lo)/range));
+			}
+			else
+				activeIndex[j] = -1;
+		}
+		
+		weight = new int[numActive];
+		weightUnit = maxWeight / (1 << WEIGHT_BITS);
+		// raw value of an attribute that is left out of an SV line, i.e. whose scaled value is 0
+		double[] rawOfZero = new double[numActive];
+		for (int j=0; j < numAnchors; j++) {
+			int p = activeIndex[j];
+			if (p < 0) continue;
+			double range = attrRange[j][1]-attrRange[j][0];
+			weight[p] = (int) Math.round(((hi-lo)/range)*((hi-lo)/range) / weightUnit);
+			rawOfZero[p] = unscale(0, attrRange[j], lo, hi);
+		}
+		
+		sv_raw = new byte[total_sv*numActive];
+		for (int i=0; i < total_sv; i++) {
+			int base = i*numActive;
+			for (int p=0; p < numActive; p++)
+				sv_raw[base+p] = (byte) quantize(rawOfZero[p]);
+			for (int k=sv_start[i]; k < sv_start[i+1]; k++) {
+				int p = activeIndex[sv_index[k]];
+				if (p >= 0)
+					sv_raw[base+p] = (byte) quantize(unscale(sv_value[k], attrRange[sv_index[k]], lo, hi));
+			}
+		}
+	}
+	
+	static boolean fits(double[][] attrRange, double lo, double hi) {
+		// true if the raw values of the models with this range round to 0 .. MAX_RAW: those of the SVs are within
+		// the training range [min, max] of each attribute (which the .range file maps to [lo, hi]), and an
+		// attribute an SV leaves out is at the raw value of a scaled 0
+		for (int j=0; j < attrRange.length; j++) {
+			if (attrRange[j][1]-attrRange[j][0] == 0) continue;
+			if (!fits(attrRange[j][0]) || !fits(attrRange[j][1]) || !fits(unscale(0, attrRange[j], lo, hi))) return false;
+		}
+		return true;
+	}
+	
+	private static boolean fits(double raw) {
+		long r = Math.round(raw);
+		return r >= 0 && r <= MAX_RAW;
+	}
+	
+	private static double unscale(double val, double[] range, double lo, double hi) {
+		// inverse of the .range scaling
+		return (val-lo)/(hi-lo)*(range[1]-range[0]) + range[0];
+	}
+	
+	private static int quantize(double raw) {
+		// raw rounded to a byte value; see fits() for the models, a query is the caller's to keep in range
+		if (!fits(raw)) throw new IllegalArgumentException("raw value " + raw + " outside 0.." + MAX_RAW);
+		return (int) Math.round(raw);
+	}
+	
+	double coef(int i) {
+		return sv_coef[i];
+	}
+	
+	ScaledSample scale(Query q) {
+		// no scaling needed, only rounding; unheard APs stay at raw value 0
+		SparseSample a = q.sample;
+		QuantizedScaledSample ret = new QuantizedScaledSample();
+		ret.sample = a;
+		ret.raw = new int[numActive];
+		for (int m=0; m < a.size; m++) {
+			int p = activeIndex[a.index[m]];
+			if (p >= 0) ret.raw[p] = quantize(a.value[m]);
+		}
+		return ret;
+	}
+	
+	double sqDist(int i, ScaledSample a) {
+		int[] raw = ((QuantizedScaledSample) a).raw;
+		int base = i*numActive;
+		long dist = 0;
+		for (int p=0; p < numActive; p++) {
+			int d = raw[p] - (sv_raw[base+p] & 0xFF);
+			dist += (long) weight[p] * (d*d);
+		}
+		return dist * weightUnit;
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		u.supportVectors += MemoryUsage.object(4*2 + 8 + 4*MemoryUsage.REFERENCE) + MemoryUsage.of(sv_coef) + MemoryUsage.of(sv_raw);
+		u.scaleTables += MemoryUsage.of(activeIndex) + MemoryUsage.of(weight);
+	}
+}
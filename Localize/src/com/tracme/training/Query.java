@@ -0,0 +1,72 @@
+package com.tracme.training;
+
+// one query sample, with what the models compute from it once for all of them: the norm of the scaled sample for
+// each ScaleRange, the random Fourier features for each FourierFeatures, the distances of each SupportVectorPool
+// group and the sample spread over a dense array. A Query belongs to one call (TrainingModel.contains(),
+// TestingTask.getEstLocation()), so these caches are never shared between threads; the models, ranges and groups
+// keep no state of a query.
+// A query meets a handful of ranges, features and groups, so the caches are short lists searched by identity.
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class Query {
+	final SparseSample sample;
+	
+	private ArrayList<ScaleRange> ranges = new ArrayList<ScaleRange>(2);
+	private double[] norms = new double[2]; // norms[r]: ||sample scaled with ranges.get(r)||^2
+	private ArrayList<Object> owners = new ArrayList<Object>(2); // FourierFeatures and Groups
+	private ArrayList<Object> values = new ArrayList<Object>(2); // what each of owners computed, see get()
+	private double[] dense;
+	
+	Query(SparseSample sample1) {
+		sample = sample1;
+	}
+	
+	static Query[] of(SparseSample[] samples) {
+		Query[] ret = new Query[samples.length];
+		for (int s=0; s < samples.length; s++)
+			ret[s] = new Query(samples[s]);
+		return ret;
+	}
+	
+	double norm(ScaleRange range) {
+		// ||scaled sample||^2 for the models using range, computed by the first of them
+		for (int r=0; r < ranges.size(); r++)
+			if (ranges.get(r) == range) return norms[r];
+		double norm = range.norm(sample);
+		if (ranges.size() == norms.length) norms = Arrays.copyOf(norms, 2*norms.length);
+		norms[ranges.size()] = norm;
+		ranges.add(range);
+		return norm;
+	}
+	
+	double[] dense(int numAttributes) {
+		// the raw sample spread over numAttributes values, 0 for the attributes it does not list; the models of a
+		// search share numAttributes (the number of anchors), so it is built once
+		if (dense == null || dense.length != numAttributes) {
+			dense = new double[numAttributes];
+			for (int m=0; m < sample.size; m++)
+				dense[sample.index[m]] = sample.value[m];
+		}
+		return dense;
+	}
+	
+	Object get(Object owner) {
+		// what owner stored for this query with put(), null if nothing yet
+		for (int k=0; k < owners.size(); k++)
+			if (owners.get(k) == owner) return values.get(k);
+		return null;
+	}
+	
+	void put(Object owner, Object value) {
+		for (int k=0; k < owners.size(); k++) {
+			if (owners.get(k) == owner) {
+				values.set(k, value);
+				return;
+			}
+		}
+		owners.add(owner);
+		values.add(value);
+	}
+}
@@ -32,24 +32,20 @@ public	class RawData {
 		
     	// insert values to dataSet
 		try {
-            FileInputStream fstream = new FileInputStream(rawDataFileName);
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			
-			String strLine;
+            TextScanner in = TextScanner.open(rawDataFileName);
             
 			// 1st line of file -> read parameter maxX
-			strLine = br.readLine();
-			maxX = Integer.parseInt(strLine);
+			in.nextLine();
+			maxX = in.nextInt();
         
 			
 			// 2nd line of file -> read parameter maxY
-			strLine = br.readLine();
-			maxY = Integer.parseInt(strLine);
+			in.nextLine();
+			maxY = in.nextInt();
 			
 			// 3rd line of file -> read numAnchors
-			strLine = br.readLine();
-			numAnchors = Integer.parseInt(strLine);
+			in.nextLine();
+			numAnchors = in.nextInt();
 	       
 			
 			
@@ -68,17 +64,23 @@ public	class RawData {
             
 			int index = 0;
 			String loc = "";
-			while ((strLine = br.readLine()) != null)   {
+			while (in.nextLine())   {
                 
-    			//System.out.println(strLine);
-				if (strLine.contains("###")){
-					loc = strLine.split("###")[1];
+				if (in.find("###")){
+					// "x,y" of the readings that follow, each rounded (as a float) to the cell it is in;
+					// the text is kept as it is for the readings
+					int start = in.position();
+					int x = Math.round((float) in.nextDouble());
+					if (!in.skip(',')) throw new NumberFormatException("missing ','");
+					int y = Math.round((float) in.nextDouble());
+					loc = in.rest(start);
 					
-					index = (int) Math.round(Float.parseFloat(loc.split(",")[0]))*maxY + Math.round(Float.parseFloat(loc.split(",")[1]));
+					index = x*maxY + y;
 					continue;
 				}
 				// convert strLine to libsvm training file format featureID:valueID separated by white space
-				dataSet.get(index).add(loc+"#" + strLine.replace(';', ' '));
+				// (the line is kept, so here it has to become a String)
+				dataSet.get(index).add(loc+"#" + in.lineString(';', ' '));
 			}
 			
 			in.close();
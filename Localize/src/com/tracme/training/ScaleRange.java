@@ -0,0 +1,82 @@
+package com.tracme.training;
+
+// the .range scaling of a model, compiled at load time
+// svm-scale maps attribute j to ((x-min_j)/(max_j-min_j))*(hi-lo)+lo, i.e. factor_j*x + offset_j;
+// attributes with max_j == min_j are always 0 and are left out of the active list.
+// Models whose .range files are identical share one ScaleRange (see SupportVectorPool.getScaleRange),
+// so the norm of a scaled query is computed once per distinct range instead of once per model (see Query.norm()).
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+class ScaleRange implements Serializable {
+	private static final long serialVersionUID = -1185693436283436215L;
+	
+	private double lo, hi; // low and high bounds for scaling
+	private double[][] attrRange; // range of each attribute, as read from the .range file
+	
+	int[] active; // attributes whose range is not zero, in increasing order
+	double[] factor; // factor_j, 0 for attributes that are not active
+	double[] offset; // offset_j: scaled value of a raw 0 (AP not heard), 0 for attributes that are not active
+	double zero_norm; // ||offset||^2, the squared norm of the scaled all-zero sample
+	int numUsers; // models using this range (see SupportVectorPool.getScaleRange), which split its MemoryUsage
+	
+	ScaleRange(double[][] attrRange1, double lo1, double hi1) {
+		attrRange = attrRange1;
+		lo = lo1;
+		hi = hi1;
+		
+		int n = attrRange.length;
+		factor = new double[n];
+		offset = new double[n];
+		int numActive = 0;
+		for (int j=0; j < n; j++) {
+			double range = attrRange[j][1]-attrRange[j][0];
+			if (range != 0) {
+				factor[j] = (hi-lo)/range;
+				offset[j] = lo - attrRange[j][0]*factor[j];
+				numActive++;
+			}
+		}
+		active = new int[numActive];
+		numActive = 0;
+		zero_norm = 0;
+		for (int j=0; j < n; j++) {
+			if (factor[j] != 0) active[numActive++] = j;
+			zero_norm += offset[j]*offset[j];
+		}
+	}
+	
+	boolean sameRange(double[][] attrRange1, double lo1, double hi1) {
+		return lo == lo1 && hi == hi1 && Arrays.deepEquals(attrRange, attrRange1);
+	}
+	
+	double[][] attrRange() {
+		return attrRange;
+	}
+	
+	long memoryBytes() {
+		// this range and its tables, attrRange included
+		return MemoryUsage.object(8*3 + 4 + 4*MemoryUsage.REFERENCE) + MemoryUsage.of(attrRange) + MemoryUsage.of(active) +
+				MemoryUsage.of(factor) + MemoryUsage.of(offset);
+	}
+	
+	int numAttributes() {
+		return factor.length;
+	}
+	
+	double scaleValue(int j, double val) {
+		return factor[j]*val + offset[j];
+	}
+	
+	double norm(SparseSample a) {
+		// ||scaled a||^2: the attributes a does not list keep their offset, so only its non-zeros are visited
+		double norm = zero_norm;
+		for (int m=0; m < a.size; m++) {
+			int j = a.index[m];
+			double d = factor[j]*a.value[m]; // scaled value - offset
+			norm += d*(d + 2*offset[j]);
+		}
+		return norm;
+	}
+}
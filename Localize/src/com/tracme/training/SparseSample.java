@@ -0,0 +1,35 @@
+package com.tracme.training;
+
+// a reading sample stored by its non-zero attributes only (the APs that were actually heard)
+
+public class SparseSample {
+	public final int size; // number of non-zero attributes
+	public final int[] index; // attribute indices (starting at 0), in increasing order
+	public final double[] value; // raw value of each listed attribute
+	
+	public SparseSample(double[] sample) {
+		// collect the non-zeros of a dense sample
+		int n=0;
+		for (int i=0; i < sample.length; i++)
+			if (sample[i] != 0) n++;
+		
+		size = n;
+		index = new int[n];
+		value = new double[n];
+		n=0;
+		for (int i=0; i < sample.length; i++) {
+			if (sample[i] != 0) {
+				index[n] = i;
+				value[n] = sample[i];
+				n++;
+			}
+		}
+	}
+	
+	public SparseSample(int[] index1, double[] value1, int size1) {
+		// wrap arrays that are already sorted by attribute index
+		index = index1;
+		value = value1;
+		size = size1;
+	}
+}
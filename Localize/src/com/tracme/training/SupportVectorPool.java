@@ -0,0 +1,423 @@
+package com.tracme.training;
+
+// support vectors shared by all the models of a TestingTask (TrainingModel.STORAGE_POOLED)
+// the X and Y stripe models of a floor are trained on the same fingerprints, so the same training points
+// come back as SVs in many models. Models whose .range files are identical scale samples the same way
+// and are put in one Group, where each distinct SV is stored once; a model only keeps pool ids and its alphas.
+// During a query, a Group computes the distance from the sample to each of its SVs at most once,
+// and each kernel value at most once per gamma, no matter how many models use the SV. These values are kept in the
+// Query (a GroupSample, see Group.prepare()), not in the group, so the group itself keeps no state of a query.
+// In incremental mode (setIncremental) a Group instead keeps ||sv||^2 - 2 sv.a for every SV from one query to the next
+// and only applies the attributes that changed, which is much cheaper when consecutive scans hear nearly the same APs.
+// The pool also interns the ScaleRange of every model (getScaleRange), so models with identical .range files
+// share the norm of the scaled query whatever their storage, and the FourierFeatures of the models compiled into
+// linear ones (getFourierFeatures), so those share the projection of the query.
+// NOTE: the addition of SVs must hold the pool's lock, and so must queries while models may be added (a query reads
+// the group's arrays) and in incremental mode, whose distances carry over from one query to the next
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+class SupportVectorPool implements Serializable {
+	private static final long serialVersionUID = 2306741858815227146L;
+	
+	// kernel values exp(-gamma*||a-sv||^2) of one Group for one gamma
+	static class KernelTable implements Serializable {
+		private static final long serialVersionUID = 5016447593052779082L;
+		
+		private Group group;
+		private double gamma;
+		private int id; // position in group.tables, and of the table's values in a GroupSample
+		
+		KernelTable(Group group1, double gamma1, int id1) {
+			group = group1;
+			gamma = gamma1;
+			id = id1;
+		}
+		
+		double kernel(int p, GroupSample s) {
+			if (id >= s.kernel.length) s.kernel = Arrays.copyOf(s.kernel, id+1);
+			double[] value = s.kernel[id];
+			if (value == null) value = s.kernel[id] = new double[s.size];
+			// 0 until computed: a kernel value that underflows to 0 is computed again, which changes nothing
+			if (value[p] == 0) value[p] = Math.exp((0-gamma) * group.sqDist(p, s));
+			return value[p];
+		}
+	}
+	
+	// the distances and kernel values of one query for one Group, kept in the Query
+	static class GroupSample extends DoubleSupportVectors.DoubleScaledSample {
+		private int size; // size of the group when the query started
+		private double[] dist; // ||a-sv||^2 of each SV, -1 until computed; null in incremental mode
+		private double[][] kernel; // kernel[t][p]: value of KernelTable t for SV p, see KernelTable.kernel()
+	}
+	
+	// distances of a Group's SVs kept up to date across consecutive queries
+	static class IncrementalDistances {
+		static final int RESYNC_INTERVAL = 32; // recompute everything after this many updates, to bound rounding drift
+		
+		private double[] query; // raw previous query, dense
+		private double[] e; // ||sv||^2 - 2 sv.query for each SV (scaled query); ||query-sv||^2 = ||query||^2 + e[p]
+		private double norm; // ||query||^2
+		private int size; // number of SVs covered by e (the group may have grown since)
+		private int updates; // updates since the last full computation
+		private int[] changed; // attributes that changed in the current update
+		// SVs by column (CSC): the SVs with a non-zero at attribute j are col_sv/col_value[col_start[j] .. col_start[j+1]-1],
+		// col_value holds the folded values sv_j*factor_j, see DoubleSupportVectors
+		private int[] col_start;
+		private int[] col_sv;
+		private double[] col_value;
+		
+		void update(Group group, GroupSample s) {
+			// move from the previous query to s
+			int n = group.range.numAttributes();
+			double[] newQuery = new double[n];
+			SparseSample a = s.sample;
+			for (int m=0; m < a.size; m++)
+				newQuery[a.index[m]] = a.value[m];
+			
+			int numChanged = 0;
+			if (query != null && size == group.size) {
+				if (changed == null) changed = new int[n];
+				for (int j=0; j < n; j++)
+					if (newQuery[j] != query[j] && group.range.factor[j] != 0) changed[numChanged++] = j;
+			}
+			
+			if (query == null || size != group.size || updates >= RESYNC_INTERVAL || 2*numChanged > n) {
+				// full computation: one sparse dot product per SV
+				if (size != group.size) buildColumns(group);
+				e = new double[group.size];
+				for (int p=0; p < group.size; p++)
+					e[p] = group.sv_norm[p] - 2*(group.sv_offset[p] + group.sparseDot(p, a));
+				updates = 0;
+			}
+			else {
+				// only the SVs with a non-zero at a changed attribute j are affected:
+				// e[p] -= 2 * sv_j*factor_j * (newQuery_j - query_j)
+				for (int c=0; c < numChanged; c++) {
+					int j = changed[c];
+					double d = 2*(newQuery[j] - query[j]);
+					for (int k=col_start[j]; k < col_start[j+1]; k++)
+						e[col_sv[k]] -= col_value[k]*d;
+				}
+				updates++;
+			}
+			query = newQuery;
+			norm = s.norm;
+		}
+		
+		double sqDist(int p) {
+			double d = norm + e[p];
+			return (d < 0)? 0 : d;
+		}
+		
+		private void buildColumns(Group group) {
+			// transpose the group's CSR arrays
+			int n = group.range.numAttributes();
+			int nnz = group.sv_start[group.size];
+			col_start = new int[n+1];
+			col_sv = new int[nnz];
+			col_value = new double[nnz];
+			for (int k=0; k < nnz; k++)
+				col_start[group.sv_index[k]+1]++;
+			for (int j=0; j < n; j++)
+				col_start[j+1] += col_start[j];
+			int[] next = Arrays.copyOf(col_start, n);
+			for (int p=0; p < group.size; p++) {
+				for (int k=group.sv_start[p]; k < group.sv_start[p+1]; k++) {
+					int q = next[group.sv_index[k]]++;
+					col_sv[q] = p;
+					col_value[q] = group.sv_value[k];
+				}
+			}
+			size = group.size;
+		}
+	}
+	
+	// distinct SVs of all the models that share one .range file
+	static class Group implements Serializable {
+		private static final long serialVersionUID = 3675126645012975521L;
+		
+		private ScaleRange range; // scaling shared by the models of this group
+		
+		// distinct SVs in CSR form with the scaling folded in, see DoubleSupportVectors
+		private int size;
+		private int[] sv_start = new int[17];
+		private int[] sv_index = new int[256];
+		private double[] sv_value = new double[256];
+		private double[] sv_norm = new double[16];
+		private double[] sv_offset = new double[16]; // sv.offset
+		private int[] hashTable = new int[32]; // open addressing table of (pool id + 1), 0 for an empty slot
+		
+		private ArrayList<KernelTable> tables = new ArrayList<KernelTable>();
+		private int numRefs; // calls to add(), i.e. SVs of the models with repeats; see memoryBytes()
+		private boolean incremental; // keep distances across queries, see IncrementalDistances
+		transient private IncrementalDistances tracker;
+		
+		Group(ScaleRange range1) {
+			range = range1;
+		}
+		
+		KernelTable getKernelTable(double gamma) {
+			for (int t=0; t < tables.size(); t++)
+				if (tables.get(t).gamma == gamma) return tables.get(t);
+			KernelTable table = new KernelTable(this, gamma, tables.size());
+			tables.add(table);
+			return table;
+		}
+		
+		int add(int[] index, double[] value, int from, int to) {
+			// return the pool id of the SV index/value[from .. to-1], adding it if it is not in the group yet;
+			// the SV is first compiled at the end of the CSR arrays, and SVs are compared in that form:
+			// two SVs with the same folded values, norm and offset are at the same distance from every sample
+			numRefs++;
+			int p = size;
+			if (p == sv_norm.length) {
+				sv_norm = Arrays.copyOf(sv_norm, 2*sv_norm.length);
+				sv_offset = Arrays.copyOf(sv_offset, sv_norm.length);
+				sv_start = Arrays.copyOf(sv_start, sv_norm.length+1);
+			}
+			if (sv_start[p] + (to-from) > sv_index.length) {
+				sv_index = Arrays.copyOf(sv_index, Math.max(2*sv_index.length, sv_start[p] + (to-from)));
+				sv_value = Arrays.copyOf(sv_value, sv_index.length);
+			}
+			double norm = 0, offset = 0;
+			int q = sv_start[p];
+			for (int k=from; k < to; k++) {
+				int j = index[k];
+				norm += value[k]*value[k];
+				offset += value[k]*range.offset[j];
+				if (range.factor[j] != 0) {
+					sv_index[q] = j;
+					sv_value[q] = value[k]*range.factor[j];
+					q++;
+				}
+			}
+			sv_start[p+1] = q;
+			sv_norm[p] = norm;
+			sv_offset[p] = offset;
+			
+			int mask = hashTable.length-1;
+			int slot = hash(p) & mask;
+			while (hashTable[slot] != 0) {
+				int p1 = hashTable[slot]-1;
+				if (sameSV(p1, p)) return p1;
+				slot = (slot+1) & mask;
+			}
+			
+			// new SV
+			size++;
+			hashTable[slot] = p+1;
+			if (2*size > hashTable.length) rehash();
+			return p;
+		}
+		
+		int numRefs() {
+			return numRefs;
+		}
+		
+		void release(int count) {
+			// count calls to add() of a model that is dropped (see TrainingModel.release()); its SVs stay in the
+			// group, as other models may share them
+			numRefs -= count;
+		}
+		
+		long memoryBytes() {
+			// the group with its SVs, hash table and kernel tables (its ScaleRange is counted apart; the values of a
+			// query belong to the Query)
+			long ret = MemoryUsage.object(4*2 + 9*MemoryUsage.REFERENCE + 1) + MemoryUsage.of(sv_start) + MemoryUsage.of(sv_index) +
+					MemoryUsage.of(sv_value) + MemoryUsage.of(sv_norm) + MemoryUsage.of(sv_offset) + MemoryUsage.of(hashTable) +
+					MemoryUsage.object(3*MemoryUsage.REFERENCE) + MemoryUsage.array(MemoryUsage.REFERENCE, tables.size()) +
+					tables.size() * MemoryUsage.object(8 + 4 + MemoryUsage.REFERENCE);
+			if (tracker != null) {
+				ret += MemoryUsage.object(8 + 4*2 + 6*MemoryUsage.REFERENCE) + MemoryUsage.of(tracker.query) + MemoryUsage.of(tracker.e) +
+						MemoryUsage.of(tracker.changed) + MemoryUsage.of(tracker.col_start) + MemoryUsage.of(tracker.col_sv) +
+						MemoryUsage.of(tracker.col_value);
+			}
+			return ret;
+		}
+		
+		void compact() {
+			// drop the room left for more SVs by add(), which grows the arrays again if more come
+			if (size == 0) return;
+			sv_norm = Arrays.copyOf(sv_norm, size);
+			sv_offset = Arrays.copyOf(sv_offset, size);
+			sv_start = Arrays.copyOf(sv_start, size+1);
+			sv_index = Arrays.copyOf(sv_index, sv_start[size]);
+			sv_value = Arrays.copyOf(sv_value, sv_start[size]);
+			tables.trimToSize();
+		}
+		
+		private int hash(int p) {
+			long bits = Double.doubleToLongBits(sv_norm[p]);
+			int hash = (int) (bits ^ (bits >>> 32));
+			for (int q=sv_start[p]; q < sv_start[p+1]; q++) {
+				bits = Double.doubleToLongBits(sv_value[q]);
+				hash = 31*(31*hash + sv_index[q]) + (int) (bits ^ (bits >>> 32));
+			}
+			return hash;
+		}
+		
+		private boolean sameSV(int p, int p1) {
+			if (sv_norm[p] != sv_norm[p1] || sv_offset[p] != sv_offset[p1]) return false;
+			if (sv_start[p+1]-sv_start[p] != sv_start[p1+1]-sv_start[p1]) return false;
+			for (int q=sv_start[p], q1=sv_start[p1]; q < sv_start[p+1]; q++, q1++)
+				if (sv_index[q] != sv_index[q1] || sv_value[q] != sv_value[q1]) return false;
+			return true;
+		}
+		
+		private void rehash() {
+			int[] old = hashTable;
+			hashTable = new int[2*old.length];
+			int mask = hashTable.length-1;
+			for (int s=0; s < old.length; s++) {
+				if (old[s] == 0) continue;
+				int slot = hash(old[s]-1) & mask;
+				while (hashTable[slot] != 0) slot = (slot+1) & mask;
+				hashTable[slot] = old[s];
+			}
+		}
+		
+		GroupSample prepare(Query q) {
+			// the values of this group for query q, started by the first model of the group that q reaches, and
+			// started again if SVs were added since (a model loaded in the middle of a query, see ModelArray)
+			GroupSample s = (GroupSample) q.get(this);
+			if (s != null && s.size == size) return s;
+			
+			// the distances only need the norm of the scaled sample, shared with the other models of the range
+			s = new GroupSample();
+			s.sample = q.sample;
+			s.norm = q.norm(range);
+			s.size = size;
+			s.kernel = new double[tables.size()][];
+			if (incremental) {
+				if (tracker == null) tracker = new IncrementalDistances();
+				tracker.update(this, s);
+			}
+			else {
+				s.dist = new double[size];
+				Arrays.fill(s.dist, -1);
+			}
+			q.put(this, s);
+			return s;
+		}
+		
+		double sqDist(int p, GroupSample s) {
+			// ||a-sv||^2 for the query of s, see DoubleSupportVectors.sqDist()
+			if (incremental) return tracker.sqDist(p);
+			if (s.dist[p] < 0) {
+				double d = s.norm + sv_norm[p] - 2*(sv_offset[p] + sparseDot(p, s.sample));
+				s.dist[p] = (d < 0)? 0 : d;
+			}
+			return s.dist[p];
+		}
+		
+		private double sparseDot(int p, SparseSample a) {
+			return DoubleSupportVectors.sparseDot(sv_start[p], sv_start[p+1], sv_index, sv_value, a);
+		}
+	}
+	
+	private ArrayList<ScaleRange> ranges = new ArrayList<ScaleRange>();
+	private ArrayList<Group> groups = new ArrayList<Group>();
+	private ArrayList<FourierFeatures> features = new ArrayList<FourierFeatures>();
+	private boolean incremental;
+	
+	synchronized void setIncremental(boolean incremental1) {
+		// in incremental mode every query updates the distances to all SVs from those of the previous query;
+		// worth it when consecutive queries differ in a few attributes (tracking), wasteful otherwise
+		incremental = incremental1;
+		for (int g=0; g < groups.size(); g++) {
+			groups.get(g).incremental = incremental;
+			groups.get(g).tracker = null;
+		}
+	}
+	
+	synchronized ScaleRange getScaleRange(double[][] attrRange, double lo, double hi) {
+		// shared ScaleRange of the models scaled with the given .range info
+		// each call is one more model using the range
+		for (int r=0; r < ranges.size(); r++) {
+			if (ranges.get(r).sameRange(attrRange, lo, hi)) {
+				ranges.get(r).numUsers++;
+				return ranges.get(r);
+			}
+		}
+		ScaleRange range = new ScaleRange(attrRange, lo, hi);
+		range.numUsers = 1;
+		ranges.add(range);
+		return range;
+	}
+	
+	synchronized void releaseScaleRange(ScaleRange range) {
+		// one model less uses range; ranges no model uses any more are dropped
+		range.numUsers--;
+		if (range.numUsers == 0) ranges.remove(range);
+	}
+	
+	synchronized FourierFeatures getFourierFeatures(ScaleRange range, double gamma, int numFeatures, long seed) {
+		// shared FourierFeatures of the models with the given range and gamma, see TrainingModel.setFourierFeatures();
+		// each call is one more model using them, until releaseFourierFeatures()
+		FourierFeatures.Projection projection = null;
+		for (int f=0; f < features.size(); f++) {
+			FourierFeatures.Projection p = features.get(f).projection();
+			if (!p.sameProjection(gamma, numFeatures, seed, range.numAttributes())) continue;
+			projection = p;
+			if (features.get(f).range() == range) {
+				features.get(f).numUsers++;
+				p.numUsers++;
+				return features.get(f);
+			}
+		}
+		if (projection == null) projection = new FourierFeatures.Projection(gamma, numFeatures, seed, range.numAttributes());
+		FourierFeatures ret = new FourierFeatures(projection, range);
+		ret.numUsers = 1;
+		projection.numUsers++;
+		features.add(ret);
+		return ret;
+	}
+	
+	synchronized void releaseFourierFeatures(FourierFeatures f) {
+		// one model less uses f; features no model uses any more are dropped
+		f.numUsers--;
+		f.projection().numUsers--;
+		if (f.numUsers == 0) features.remove(f);
+	}
+	
+	synchronized void memoryUsage(MemoryUsage u) {
+		// all the ranges, groups and features of the pool, each counted once
+		u.other += MemoryUsage.object(1 + 3*MemoryUsage.REFERENCE) + 3*MemoryUsage.object(3*MemoryUsage.REFERENCE) +
+				MemoryUsage.array(MemoryUsage.REFERENCE, ranges.size()) + MemoryUsage.array(MemoryUsage.REFERENCE, groups.size()) +
+				MemoryUsage.array(MemoryUsage.REFERENCE, features.size());
+		for (int r=0; r < ranges.size(); r++)
+			u.scaleTables += ranges.get(r).memoryBytes();
+		for (int f=0; f < features.size(); f++) {
+			// a Projection shared by several ranges is counted with the first of them
+			u.scaleTables += features.get(f).memoryBytes();
+			boolean counted = false;
+			for (int f1=0; f1 < f; f1++)
+				if (features.get(f1).projection() == features.get(f).projection()) counted = true;
+			if (!counted) u.scaleTables += features.get(f).projection().memoryBytes();
+		}
+		for (int g=0; g < groups.size(); g++)
+			u.pool += groups.get(g).memoryBytes();
+	}
+	
+	synchronized void compact() {
+		// trim the arrays grown while the models were added; see Group.compact()
+		ranges.trimToSize();
+		groups.trimToSize();
+		features.trimToSize();
+		for (int g=0; g < groups.size(); g++)
+			groups.get(g).compact();
+	}
+	
+	synchronized Group getGroup(ScaleRange range) {
+		// group of the models scaled with the given range
+		for (int g=0; g < groups.size(); g++)
+			if (groups.get(g).range == range) return groups.get(g);
+		Group group = new Group(range);
+		group.incremental = incremental;
+		groups.add(group);
+		return group;
+	}
+}
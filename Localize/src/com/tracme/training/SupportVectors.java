@@ -0,0 +1,59 @@
+package com.tracme.training;
+
+// storage for the support vectors of one binary TrainingModel
+// TrainingModel parses the .model/.range files and hands the SVs to one of the subclasses below,
+// which decide how the SVs, alphas and scale ranges are kept in memory and how ||a-sv||^2 is computed
+
+import java.io.Serializable;
+
+abstract class SupportVectors implements Serializable {
+	private static final long serialVersionUID = 2690843213394113054L;
+	
+	// a query sample after scaling; each storage keeps whatever it needs for its sqDist()
+	static class ScaledSample {
+		SparseSample sample; // the raw sample that was scaled
+	}
+	
+	int total_sv; // number of support vectors
+	
+	// "alpha" value of support vector i
+	abstract double coef(int i);
+	
+	// scale the sample of a query once, before calling sqDist() for every SV; what several models can share is
+	// cached in q
+	abstract ScaledSample scale(Query q);
+	
+	// squared distance ||a-sv||^2 between the scaled sample and support vector i
+	abstract double sqDist(int i, ScaledSample a);
+	
+	// add the bytes this storage keeps to u; with shares, also this model's share of the structures it shares
+	// with other models (the ScaleRange is counted by TrainingModel)
+	abstract void memoryUsage(MemoryUsage u, boolean shares);
+	
+	// RBF kernel value exp(-gamma*||a-sv||^2) of support vector i
+	double kernelFunction(int i, ScaledSample a, double gamma) {
+		return Math.exp((0-gamma) * sqDist(i, a));
+	}
+	
+	// same as above, for a sample whose raw values are also spread over dense (0 for the attributes it does not
+	// list, see Query.dense()); storages that keep the SVs as CSR rows gather from dense instead of merging two
+	// index lists, with the same result up to denseError()
+	double kernelFunction(int i, ScaledSample a, double[] dense, double gamma) {
+		return kernelFunction(i, a, gamma);
+	}
+	
+	// true if kernelFunction(i, a, dense, gamma) uses dense
+	boolean usesDense() {
+		return false;
+	}
+	
+	// undo what the constructor registered in pool, for a model dropped before use (see TrainingModel.release())
+	void release(SupportVectorPool pool) {
+	}
+	
+	// bound on the relative error of kernelFunction(i, a, dense, gamma) against kernelFunction(i, a, gamma), for
+	// all the SVs; 0 unless the storage takes its gathered dot products from a DotProduct that reorders the sums
+	double denseError(double[] dense, double gamma) {
+		return 0;
+	}
+}
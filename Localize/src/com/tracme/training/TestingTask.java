@@ -3,7 +3,11 @@ package com.tracme.training;
 // given train file, provide methods for prediction
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -11,6 +15,14 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import android.widget.ProgressBar;
 
@@ -32,6 +44,12 @@ public	class TestingTask implements Serializable {
 	 * 
 	 */
 	private static final long serialVersionUID = -999857483258613244L;
+	static final int SNAPSHOT_MAGIC = 0x4C535453; // "LSTS"
+	static final int SNAPSHOT_VERSION = 5;
+	// ids of the ExpFunction in a snapshot
+	static final int EXP_NONE = 0; // exact kernel only
+	static final int EXP_MATH = 1; // ExpFunction
+	static final int EXP_FAST = 2; // FastExp
 	private String rawDataFile; // name of raw data file, given by constructor method; e.g., rawDataFile = "brunato_data.txt";
 	private String trainFile; // name of train file, given by constructor method; e.g., trainFile = "train_p0.5.txt"
 	
@@ -45,10 +63,26 @@ public	class TestingTask implements Serializable {
 	// attributes below are for SH-SVM
 	private int numClassesX; // number of classes for X dimension
 	private int numClassesY; // number of classes for Y dimension
-	private TrainingModel [] modelX, modelY;
+	private ModelArray modelX, modelY;
+	private int storage = TrainingModel.STORAGE_DOUBLE; // how the models keep their support vectors in memory
+	private ExpFunction expFunction; // approximate exp() for the models' kernels; null means Math.exp
+	private double expMargin; // see TrainingModel.setExpFunction()
+	private int numFeatures; // random Fourier features of the models compiled into linear models, 0 for the kernels
+	private long fourierSeed; // see setFourierFeatures()
+	private double fourierMargin;
+	private SupportVectorPool pool; // scaling shared by modelX and modelY, and their SVs with TrainingModel.STORAGE_POOLED
+	private boolean incremental; // update distances from the previous query instead of recomputing them
+	private boolean lazyLoading; // load each model the first time a query needs it, see ModelArray
+	private boolean warmModels; // with lazyLoading, load the other models in a background thread
+	private int readyLevels; // with lazyLoading, levels of the search trees loaded before setNumClasses() returns
+	private boolean coarseEstimates; // stop a search at the first model not loaded yet, see getClassID()
 	
 	//transient public ProgressBar initialProgBar;
 	
+	private TestingTask() {
+		// for readSnapshot()
+	}
+	
 	public TestingTask(String rawDataFile1, String trainFile1) {
 		
 		rawDataFile = rawDataFile1;
@@ -64,12 +98,13 @@ public	class TestingTask implements Serializable {
 		try {
 			// read parameters maxX, maxY, numAnchors
 			// CHANGED FOR ANDROID: FileInputStream fstream = new FileInputStream(rawDataFile +"_dir/parameters.txt");
-			FileInputStream fstream = rawDataLog.inputStream;
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			maxX = Integer.parseInt(br.readLine());
-			maxY = Integer.parseInt(br.readLine());
-			numAnchors = Integer.parseInt(br.readLine());
+			TextScanner in = new TextScanner(rawDataLog.inputStream);
+			in.nextLine();
+			maxX = in.nextInt();
+			in.nextLine();
+			maxY = in.nextInt();
+			in.nextLine();
+			numAnchors = in.nextInt();
 			in.close();
 		}
 		catch(Exception e) {
@@ -79,30 +114,376 @@ public	class TestingTask implements Serializable {
 		} 
 	}
 	
-	public void setNumClasses (int numClassesX1, int numClassesY1, ProgressBar initialProgBar) {
-		int totalClassesDone = 0;
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		// models may still be loading in the background (setLazyLoading)
+		if (pool == null) out.defaultWriteObject();
+		else synchronized (pool) {
+			out.defaultWriteObject();
+		}
+	}
+	
+	public void setStorage(int storage1) {
+		// choose how models loaded by setNumClasses() store their support vectors (TrainingModel.STORAGE_*)
+		storage = storage1;
+	}
+	
+	public void setExpFunction(ExpFunction expFunction1, double expMargin1) {
+		// use an approximate exp() (e.g. FastExp) in every model; contains() results do not change, see TrainingModel
+		expFunction = expFunction1;
+		expMargin = expMargin1;
+		if (modelX != null) modelX.setExpFunction(expFunction, expMargin);
+		if (modelY != null) modelY.setExpFunction(expFunction, expMargin);
+	}
+	
+	public void setFourierFeatures(int numFeatures1, long seed1, double margin1) throws IOException {
+		// compile every model into a linear model on numFeatures1 random Fourier features drawn with seed1 (see
+		// FourierFeatures), so that a query costs one projection of the sample per gamma and a dot product per model
+		// instead of a kernel per SV; numFeatures1 = 0 goes back to the kernels. Decision values within margin1 of 0
+		// are recomputed with the kernel; the others are approximate, see compareFourier() for how often contains()
+		// changes. The models already loaded are compiled now (their files are read again), the others as they load
+		numFeatures = numFeatures1;
+		fourierSeed = seed1;
+		fourierMargin = margin1;
+		if (modelX != null) modelX.setFourierFeatures(numFeatures, fourierSeed, fourierMargin);
+		if (modelY != null) modelY.setFourierFeatures(numFeatures, fourierSeed, fourierMargin);
+	}
+	
+	public void setLazyLoading(boolean lazyLoading1, boolean warmModels1) {
+		// with lazyLoading, setNumClasses() returns at once and each model is loaded when a query first needs it,
+		// so the first fix only waits for the ~log2(numClasses) models its search visits.
+		// With warmModels, a background thread then loads the remaining models (and writes the FloorBundle if missing or stale)
+		lazyLoading = lazyLoading1;
+		warmModels = warmModels1;
+	}
+	
+	public void setReadyLevels(int readyLevels1) {
+		// with lazyLoading, setNumClasses() first loads the top readyLevels levels of the X and Y search trees
+		// (level 0 is model 1 and the middle pivot, level 1 the quartiles, ...; see ModelArray).
+		// With warmModels too, queries then never wait for the background thread: a search that reaches a model
+		// that is not loaded yet stops there with a coarse estimate, which gets finer as deeper levels arrive
+		readyLevels = readyLevels1;
+	}
+	
+	public void setIncremental(boolean incremental1) {
+		// tracking mode: consecutive scans usually differ in a handful of APs, so keep the distances from the
+		// previous query to every SV and only apply the APs that changed (resynced every few queries).
+		// The distances live in the SupportVectorPool, so this only applies with TrainingModel.STORAGE_POOLED
+		incremental = incremental1;
+		if (pool != null) pool.setIncremental(incremental);
+	}
+	
+	private String modelFile(String dimension, int numClasses, int i) {
+		// training file of the i-th model (starting at 0) for the given dimension
+		return rawDataFile +"_dir/" + trainFile + "_dir/" + dimension + numClasses + "/" + (i+1) + ".txt";
+	}
+	
+	private String[] modelFiles(String dimension, int numClasses) {
+		// training files of all the models of the given dimension
+		String[] ret = new String[numClasses];
+		for (int i = 0; i < numClasses; i++) ret[i] = modelFile(dimension, numClasses, i);
+		return ret;
+	}
+	
+	private String bundleFile(int numClassesX, int numClassesY) {
+		// FloorBundle with the models of both dimensions
+		return rawDataFile +"_dir/" + trainFile + "_dir/X" + numClassesX + "_Y" + numClassesY + ".bundle";
+	}
+	
+	public void buildBundle(int numClassesX1, int numClassesY1) throws IOException {
+		// (re)write the FloorBundle of the given models; setNumClasses() does it when the bundle is missing or
+		// a model was retrained. The stamp is taken before the models are read, see FloorBundle.open()
+		ModelFile[] filesX = new ModelFile[numClassesX1];
+		ModelFile[] filesY = new ModelFile[numClassesY1];
+		long[] stamp = FloorBundle.stamp(modelFiles("X", numClassesX1), modelFiles("Y", numClassesY1));
+		for (int i = 0; i < numClassesX1; i++)
+			filesX[i] = ModelFile.load(modelFile("X", numClassesX1, i), numAnchors);
+		for (int i = 0; i < numClassesY1; i++)
+			filesY[i] = ModelFile.load(modelFile("Y", numClassesY1, i), numAnchors);
+		FloorBundle.write(bundleFile(numClassesX1, numClassesY1), numAnchors, filesX, filesY, stamp);
+		// models were (re)compiled, so entries of retrained models may have been left behind
+		ModelCache.prune();
+	}
+	
+	public void setNumClasses (int numClassesX1, int numClassesY1, ProgressBar initialProgBar) throws IOException {
+		// a model that cannot be loaded is reported with an IOException; with several failures, the first one
+		// in loading order, whatever the order the threads got to them
 		numClassesX = numClassesX1;
 		numClassesY = numClassesY1;	
 		
-		modelX = new TrainingModel[numClassesX];
-		modelY = new TrainingModel[numClassesY];
+		// all the models come from the floor's bundle if there is one and no model was retrained since it was
+		// written; otherwise they are loaded one by one and the bundle is (re)written for next time
+		FloorBundle bundle = FloorBundle.open(bundleFile(numClassesX, numClassesY), numAnchors,
+				modelFiles("X", numClassesX), modelFiles("Y", numClassesY));
+		createModels(bundle);
+		startModels(bundle, initialProgBar);
+	}
+	
+	private void startModels(final FloorBundle bundle, ProgressBar initialProgBar) throws IOException {
+		// load the models created by createModels(), all of them or, with lazyLoading, the top readyLevels levels;
+		// initialProgBar may be null
+		// models are loaded in the order of the search trees, so the models every query visits come first
+		final int numLevels = Math.max(modelX.numLevels(), modelY.numLevels());
+		coarseEstimates = false;
+		if (lazyLoading) {
+			loadModels(Math.min(readyLevels, numLevels), initialProgBar);
+			if (initialProgBar != null) initialProgBar.setProgress(numClassesX + numClassesY);
+			if (warmModels) {
+				coarseEstimates = readyLevels > 0;
+				// the models of this floor, which the fields no longer hold once setNumClasses() moves to another one
+				final ModelArray warmX = modelX, warmY = modelY;
+				final int warmClassesX = numClassesX, warmClassesY = numClassesY;
+				final SupportVectorPool warmPool = pool;
+				Thread warm = new Thread(new Runnable() {
+					public void run() {
+						try {
+							for (int lv = 0; lv < numLevels; lv++) {
+								warmX.loadLevel(lv);
+								warmY.loadLevel(lv);
+							}
+							if (warmPool != null) warmPool.compact();
+							if (bundle == null) buildBundle(warmClassesX, warmClassesY);
+						} catch(IOException e) {
+							// the model is loaded again (and the error reported) if a query needs it
+							System.out.println("Failed to load models in the background: " + e.getMessage());
+						}
+					}
+				});
+				warm.setDaemon(true);
+				warm.setPriority(Thread.MIN_PRIORITY);
+				warm.start();
+			}
+			return;
+		}
 		
-		for (int i = 0; i < numClassesX; i++) {
-			System.out.println("SETTING CLASSES FOR X: " + i);
-			String str = rawDataFile +"_dir/" + trainFile + "_dir/X" + numClassesX + "/" + (i+1) + ".txt";
-			//System.out.println("Load training model " + str);
-			modelX[i] = new TrainingModel(str, numAnchors);
+		loadModels(numLevels, initialProgBar);
+		compact();
+		if (bundle == null) buildBundle(numClassesX, numClassesY);
+	}
+	
+	public void compact() {
+		// trim the arrays that were grown while the models were loaded (the shared SVs of STORAGE_POOLED);
+		// done by setNumClasses() once all the models are in, harmless (just useless) before
+		if (pool != null) pool.compact();
+	}
+	
+	public MemoryUsage memoryUsageX() {
+		// bytes retained by the loaded X models, with their shares of the pool and of the floor's bundle
+		MemoryUsage ret = new MemoryUsage();
+		if (modelX != null) modelX.memoryUsage(ret, true);
+		return ret;
+	}
+	
+	public MemoryUsage memoryUsageY() {
+		MemoryUsage ret = new MemoryUsage();
+		if (modelY != null) modelY.memoryUsage(ret, true);
+		return ret;
+	}
+	
+	public MemoryUsage memoryUsage() {
+		// bytes retained by all the loaded models, the shared structures counted once
+		MemoryUsage ret = new MemoryUsage();
+		if (pool == null) return ret;
+		modelX.memoryUsage(ret, false);
+		modelY.memoryUsage(ret, false);
+		pool.memoryUsage(ret);
+		ret.mapped += modelX.mappedBytes(); // the X and Y models come from the same bundle
+		return ret;
+	}
+	
+	private void createModels(FloorBundle bundle) throws IOException {
+		// modelX and modelY for numClassesX and numClassesY, none loaded yet; bundle may be null
+		pool = new SupportVectorPool();
+		pool.setIncremental(incremental);
+		
+		String[] filesX = new String[numClassesX];
+		String[] filesY = new String[numClassesY];
+		for (int i = 0; i < numClassesX; i++) filesX[i] = modelFile("X", numClassesX, i);
+		for (int i = 0; i < numClassesY; i++) filesY[i] = modelFile("Y", numClassesY, i);
+		modelX = new ModelArray(filesX, bundle, true, numAnchors, storage, pool);
+		modelY = new ModelArray(filesY, bundle, false, numAnchors, storage, pool);
+		modelX.setExpFunction(expFunction, expMargin);
+		modelY.setExpFunction(expFunction, expMargin);
+		modelX.setFourierFeatures(numFeatures, fourierSeed, fourierMargin);
+		modelY.setFourierFeatures(numFeatures, fourierSeed, fourierMargin);
+	}
+	
+	private void loadModels(int numLevels, final ProgressBar initialProgBar) throws IOException {
+		// load the models on the top numLevels levels of both search trees with one thread per core;
+		// the tasks are queued in search order, so the top levels are done first.
+		// ProgressBar.setProgress() may be called from any thread; initialProgBar may be null. The count and the
+		// bar are updated under one lock, so the threads that finish together cannot move the bar backwards
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		final AtomicInteger totalClassesDone = new AtomicInteger();
+		ArrayList<Future<TrainingModel>> tasks = new ArrayList<Future<TrainingModel>>();
+		try {
+			for (int lv = 0; lv < numLevels; lv++) {
+				for (final ModelArray model : new ModelArray[] {modelX, modelY}) {
+					for (final int i : model.levelModels(lv)) {
+						tasks.add(executor.submit(new Callable<TrainingModel>() {
+							public TrainingModel call() throws IOException {
+								TrainingModel ret = model.load(i);
+								synchronized (totalClassesDone) {
+									int done = totalClassesDone.incrementAndGet();
+									if (initialProgBar != null) initialProgBar.setProgress(done);
+								}
+								return ret;
+							}
+						}));
+					}
+				}
+			}
 			
-			initialProgBar.setProgress(++totalClassesDone);
+			// wait for all of them, then report the first failure in queue order
+			IOException failure = null;
+			for (int t = 0; t < tasks.size(); t++) {
+				try {
+					tasks.get(t).get();
+				} catch(ExecutionException e) {
+					if (failure == null)
+						failure = (e.getCause() instanceof IOException)? (IOException) e.getCause() : new IOException("Failed to load a model: " + e.getCause(), e.getCause());
+				} catch(InterruptedException e) {
+					throw new InterruptedIOException("Interrupted while loading models");
+				}
+			}
+			if (failure != null) throw failure;
 		}
-		for (int i = 0; i < numClassesY; i++) {
-			System.out.println("SETTING CLASSES FOR Y: " + i);
-			String str = rawDataFile +"_dir/" + trainFile + "_dir/Y" + numClassesY + "/" + (i+1) + ".txt";
-			//System.out.println("Load training model " + str);
-			modelY[i] = new TrainingModel(str, numAnchors);
-			initialProgBar.setProgress(++totalClassesDone);
+		finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	public void writeSnapshot(OutputStream out1) throws IOException {
+		// write the task and all its models to out1 (which is flushed, not closed), see readSnapshot().
+		// layout (big-endian):
+		//   int SNAPSHOT_MAGIC, int SNAPSHOT_VERSION
+		//   rawDataFile, trainFile (each an int length and UTF-8 bytes)
+		//   int maxX, maxY, numAnchors, numClassesX, numClassesY, storage, readyLevels
+		//   boolean incremental, lazyLoading, warmModels
+		//   int id of expFunction (EXP_NONE, EXP_MATH or EXP_FAST), double expMargin
+		//   int numFeatures, long fourierSeed, double fourierMargin
+		//   if numClassesX > 0: a FloorBundle of the models
+		//   long CRC32 of all the bytes before it
+		// The models are not loaded for this: they come from the ModelCache or the floor's bundle.
+		// An ExpFunction of another class than the two this package has is an IOException
+		CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out1), new CRC32());
+		DataOutputStream out = new DataOutputStream(checked);
+		out.writeInt(SNAPSHOT_MAGIC);
+		out.writeInt(SNAPSHOT_VERSION);
+		writeString(out, rawDataFile);
+		writeString(out, trainFile);
+		int[] ints = {maxX, maxY, numAnchors, numClassesX, numClassesY, storage, readyLevels};
+		for (int k = 0; k < ints.length; k++)
+			out.writeInt(ints[k]);
+		out.writeBoolean(incremental);
+		out.writeBoolean(lazyLoading);
+		out.writeBoolean(warmModels);
+		out.writeInt(expFunctionId(expFunction));
+		out.writeDouble(expMargin);
+		out.writeInt(numFeatures);
+		out.writeLong(fourierSeed);
+		out.writeDouble(fourierMargin);
+		if (numClassesX > 0) {
+			ModelFile[] filesX = new ModelFile[numClassesX];
+			ModelFile[] filesY = new ModelFile[numClassesY];
+			for (int i = 0; i < numClassesX; i++) filesX[i] = modelX.file(i);
+			for (int i = 0; i < numClassesY; i++) filesY[i] = modelY.file(i);
+			// the embedded bundle's stamp is not checked, see FloorBundle
+			FloorBundle.write(out, numAnchors, filesX, filesY, new long[FloorBundle.STAMP_LENGTH]);
+		}
+		out.flush();
+		out.writeLong(checked.getChecksum().getValue());
+		out.flush();
+	}
+	
+	public static TestingTask readSnapshot(File file) throws IOException {
+		// the task written by writeSnapshot(), with its models loaded as setNumClasses() would: all of them, or with
+		// lazyLoading the top readyLevels levels (and the rest by the warm thread or the queries). The file is
+		// memory-mapped and the models are built straight from its pages; a file of another version or with a bad
+		// checksum is an IOException
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer map;
+		try {
+			map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			raf.close();
 		}
 		
+		try {
+			int end = map.capacity() - 8;
+			ByteBuffer buf = map.duplicate();
+			buf.limit(end);
+			CRC32 crc = new CRC32();
+			byte[] chunk = new byte[64*1024];
+			while (buf.hasRemaining()) {
+				int n = Math.min(chunk.length, buf.remaining());
+				buf.get(chunk, 0, n);
+				crc.update(chunk, 0, n);
+			}
+			if (map.getLong(end) != crc.getValue()) throw new IOException("bad checksum");
+			
+			buf.position(0);
+			if (buf.getInt() != SNAPSHOT_MAGIC || buf.getInt() != SNAPSHOT_VERSION)
+				throw new IOException("not a snapshot of version " + SNAPSHOT_VERSION);
+			TestingTask ret = new TestingTask();
+			ret.rawDataFile = readString(buf);
+			ret.trainFile = readString(buf);
+			ret.maxX = buf.getInt();
+			ret.maxY = buf.getInt();
+			ret.numAnchors = buf.getInt();
+			ret.numClassesX = buf.getInt();
+			ret.numClassesY = buf.getInt();
+			ret.storage = buf.getInt();
+			ret.readyLevels = buf.getInt();
+			ret.incremental = buf.get() != 0;
+			ret.lazyLoading = buf.get() != 0;
+			ret.warmModels = buf.get() != 0;
+			ret.expFunction = expFunctionOf(buf.getInt());
+			ret.expMargin = buf.getDouble();
+			ret.numFeatures = buf.getInt();
+			ret.fourierSeed = buf.getLong();
+			ret.fourierMargin = buf.getDouble();
+			if (ret.numClassesX > 0) {
+				FloorBundle bundle = FloorBundle.read(buf, ret.numAnchors, ret.numClassesX, ret.numClassesY);
+				if (bundle == null) throw new IOException("bad models");
+				ret.createModels(bundle);
+				ret.startModels(bundle, null);
+			}
+			return ret;
+		}
+		catch(IOException e) {
+			throw new IOException("Failed readSnapshot() " + file + ": " + e.getMessage(), e);
+		}
+		catch(Exception e) {
+			// a file cut short
+			throw new IOException("Failed readSnapshot() " + file + ": " + e, e);
+		}
+	}
+	
+	private static int expFunctionId(ExpFunction f) throws IOException {
+		if (f == null) return EXP_NONE;
+		if (f.getClass() == ExpFunction.class) return EXP_MATH;
+		if (f.getClass() == FastExp.class) return EXP_FAST;
+		throw new IOException("no snapshot id for " + f.getClass().getName());
+	}
+	
+	private static ExpFunction expFunctionOf(int id) throws IOException {
+		if (id == EXP_NONE) return null;
+		if (id == EXP_MATH) return new ExpFunction();
+		if (id == EXP_FAST) return new FastExp();
+		throw new IOException("unknown ExpFunction id " + id);
+	}
+	
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(ByteBuffer buf) throws IOException {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, "UTF-8");
 	}
 	
 	/*
@@ -112,51 +493,59 @@ public	class TestingTask implements Serializable {
 	}
 	*/
 	
-	private int getClassID(String dimension, double[] b) {
+	private double getClassID(ModelArray model, Query b) {
 		// given a reading b, return the smallest class containing b
+		// model is modelX or modelY
+		// with coarseEstimates, the search stops at the first model that is not loaded yet, when the class is known
+		// to be in lo+2 .. hi+1, and returns the middle of that range
 		
 		boolean label;
-    	label= (dimension.equals("X"))? modelX[0].contains(b) : modelY[0].contains(b);
+		if (coarseEstimates && !model.isLoaded(0)) return (model.length() + 1) / 2.0;
+    	label= model.get(0).contains(b);
     	if (label) return 1;
     	
         int lo = 0;
-        int hi = (dimension.equals("X"))? (numClassesX-1) : (numClassesY-1);	
+        int hi = model.length()-1;	
         while (true) {
             if (hi - lo == 1) return hi+1;
         	int mid = (lo + hi) / 2;
-        	label= (dimension.equals("X"))? modelX[mid].contains(b) : modelY[mid].contains(b);
+        	if (coarseEstimates && !model.isLoaded(mid)) return (lo + hi + 3) / 2.0;
+        	label= model.get(mid).contains(b);
         	if (label) hi = mid;
             else lo = mid;
         }
      }
 	
 	
-	private int getClassID_Enhanced(String dimension, double[] b) {
+	private double getClassID_Enhanced(ModelArray model, Query b) {
 		// given a reading b, return the smallest class containing b
 		// each membership query asks 3 classes instead of 1: if at least 2 give consistent answers, go with those 2
+		// coarseEstimates as in getClassID(); the neighbours of a loaded pivot are loaded on demand
 		
 		boolean label, label_next, label_prev;
-    	label= (dimension.equals("X"))? modelX[0].contains(b) : modelY[0].contains(b);
+		if (coarseEstimates && !model.isLoaded(0)) return (model.length() + 1) / 2.0;
+    	label= model.get(0).contains(b);
     	if (label) return 1;
     	
         int lo = 0;
-        int hi = (dimension.equals("X"))? (numClassesX-1) : (numClassesY-1);	
+        int hi = model.length()-1;	
         while (true) {
             if (hi - lo == 1) return hi+1;
         	int mid = (lo + hi) / 2;
+        	if (coarseEstimates && !model.isLoaded(mid)) return (lo + hi + 3) / 2.0;
         	
-        	label = (dimension.equals("X"))? modelX[mid].contains(b) : modelY[mid].contains(b);
+        	label = model.get(mid).contains(b);
         	if (label == true) {
         		// predicted to be left of mid
         		// double check if it is also predicted to be left of (mid+1)
-        		label_next = (dimension.equals("X"))? modelX[mid+1].contains(b) : modelY[mid+1].contains(b);
+        		label_next = model.get(mid+1).contains(b);
             	if (label_next == true) {
             		hi = mid;
             	}
             	else {
             		// do not agree
             		// triple check with (mid-1)
-            		label_prev = (dimension.equals("X"))? modelX[mid-1].contains(b) : modelY[mid-1].contains(b);
+            		label_prev = model.get(mid-1).contains(b);
             		if (label_prev == true) hi = mid;
             		else lo = mid;
             	}
@@ -164,14 +553,14 @@ public	class TestingTask implements Serializable {
         	else {
         		// predicted to be right of mid
         		// double check if it is also predicted to be right of (mid-1)
-        		label_prev = (dimension.equals("X"))? modelX[mid-1].contains(b) : modelY[mid-1].contains(b);
+        		label_prev = model.get(mid-1).contains(b);
             	if (label_prev == false) {
             		lo = mid;
             	}
             	else {
             		// do not agree
             		// triple check with (mid+1)
-            		label_next = (dimension.equals("X"))? modelX[mid+1].contains(b) : modelY[mid+1].contains(b);
+            		label_next = model.get(mid+1).contains(b);
             		if (label_next == false) lo = mid;
             		else hi = mid;
             	}
@@ -179,19 +568,227 @@ public	class TestingTask implements Serializable {
         }
      }
 	
+	private double[] getClassIDs(ModelArray model, Query[] b) {
+		// getClassID() of each reading of b, with the same result: the searches go down the tree together, and at
+		// each step the readings that ask the same model are answered by one batch TrainingModel.contains()
+		int n = b.length;
+		double[] ret = new double[n];
+		if (coarseEstimates && !model.isLoaded(0)) {
+			Arrays.fill(ret, (model.length() + 1) / 2.0);
+			return ret;
+		}
+		int[] lo = new int[n], hi = new int[n];
+		boolean[] done = model.get(0).contains(b);
+		for (int s=0; s < n; s++) {
+			if (done[s]) ret[s] = 1;
+			hi[s] = model.length()-1;
+		}
+		
+		int[] which = new int[n];
+		while (true) {
+			// the readings still searching, bucketed by the model they ask next: which[start[mid] .. start[mid+1]-1]
+			int[] start = bucketByMid(lo, hi, done, ret, which, model.length());
+			if (start == null) return ret;
+			for (int mid=0; mid < model.length(); mid++) {
+				if (start[mid] == start[mid+1]) continue;
+				if (coarseEstimates && !model.isLoaded(mid)) {
+					for (int k=start[mid]; k < start[mid+1]; k++) {
+						int s = which[k];
+						ret[s] = (lo[s] + hi[s] + 3) / 2.0;
+						done[s] = true;
+					}
+					continue;
+				}
+				boolean[] label = contains(model, mid, b, which, start[mid], start[mid+1]);
+				for (int k=start[mid]; k < start[mid+1]; k++) {
+					int s = which[k];
+					if (label[k-start[mid]]) hi[s] = mid;
+					else lo[s] = mid;
+				}
+			}
+		}
+	}
+	
+	private double[] getClassIDs_Enhanced(ModelArray model, Query[] b) {
+		// getClassID_Enhanced() of each reading of b, batched as in getClassIDs(); the second and third checks of
+		// a step are batched too, over the readings of the bucket that need them
+		int n = b.length;
+		double[] ret = new double[n];
+		if (coarseEstimates && !model.isLoaded(0)) {
+			Arrays.fill(ret, (model.length() + 1) / 2.0);
+			return ret;
+		}
+		int[] lo = new int[n], hi = new int[n];
+		boolean[] done = model.get(0).contains(b);
+		for (int s=0; s < n; s++) {
+			if (done[s]) ret[s] = 1;
+			hi[s] = model.length()-1;
+		}
+		
+		int[] which = new int[n];
+		int[] left = new int[n], right = new int[n]; // readings of a bucket predicted left / right of mid
+		while (true) {
+			int[] start = bucketByMid(lo, hi, done, ret, which, model.length());
+			if (start == null) return ret;
+			for (int mid=0; mid < model.length(); mid++) {
+				if (start[mid] == start[mid+1]) continue;
+				if (coarseEstimates && !model.isLoaded(mid)) {
+					for (int k=start[mid]; k < start[mid+1]; k++) {
+						int s = which[k];
+						ret[s] = (lo[s] + hi[s] + 3) / 2.0;
+						done[s] = true;
+					}
+					continue;
+				}
+				
+				boolean[] label = contains(model, mid, b, which, start[mid], start[mid+1]);
+				int numLeft = 0, numRight = 0;
+				for (int k=start[mid]; k < start[mid+1]; k++) {
+					if (label[k-start[mid]]) left[numLeft++] = which[k];
+					else right[numRight++] = which[k];
+				}
+				
+				// predicted to be left of mid: double check with (mid+1), triple check with (mid-1) if they do not agree
+				boolean[] label_next = contains(model, mid+1, b, left, 0, numLeft);
+				int numDisagree = 0;
+				for (int k=0; k < numLeft; k++) {
+					if (label_next[k]) hi[left[k]] = mid;
+					else left[numDisagree++] = left[k];
+				}
+				boolean[] label_prev = contains(model, mid-1, b, left, 0, numDisagree);
+				for (int k=0; k < numDisagree; k++) {
+					if (label_prev[k]) hi[left[k]] = mid;
+					else lo[left[k]] = mid;
+				}
+				
+				// predicted to be right of mid: double check with (mid-1), triple check with (mid+1) if they do not agree
+				label_prev = contains(model, mid-1, b, right, 0, numRight);
+				numDisagree = 0;
+				for (int k=0; k < numRight; k++) {
+					if (!label_prev[k]) lo[right[k]] = mid;
+					else right[numDisagree++] = right[k];
+				}
+				label_next = contains(model, mid+1, b, right, 0, numDisagree);
+				for (int k=0; k < numDisagree; k++) {
+					if (!label_next[k]) lo[right[k]] = mid;
+					else hi[right[k]] = mid;
+				}
+			}
+		}
+	}
+	
+	private static int[] bucketByMid(int[] lo, int[] hi, boolean[] done, double[] ret, int[] which, int numModels) {
+		// one step of the batched searches: readings whose range is down to one class are done, the others are
+		// listed in which by the model (lo+hi)/2 they ask next, the readings asking mid at which[start[mid] .. start[mid+1]-1].
+		// Returns start, or null when every reading is done
+		int[] start = new int[numModels+1];
+		int pending = 0;
+		for (int s=0; s < done.length; s++) {
+			if (done[s]) continue;
+			if (hi[s] - lo[s] == 1) {
+				ret[s] = hi[s]+1;
+				done[s] = true;
+				continue;
+			}
+			start[(lo[s] + hi[s]) / 2 + 1]++;
+			pending++;
+		}
+		if (pending == 0) return null;
+		for (int i=0; i < numModels; i++)
+			start[i+1] += start[i];
+		int[] next = Arrays.copyOf(start, numModels);
+		for (int s=0; s < done.length; s++)
+			if (!done[s]) which[next[(lo[s] + hi[s]) / 2]++] = s;
+		return start;
+	}
+	
+	private static boolean[] contains(ModelArray model, int i, Query[] b, int[] which, int from, int to) {
+		// contains() of model i for the readings b[which[from]] .. b[which[to-1]], as one batch
+		if (from == to) return new boolean[0];
+		Query[] batch = new Query[to-from];
+		for (int k=from; k < to; k++)
+			batch[k-from] = b[which[k]];
+		return model.get(i).contains(batch);
+	}
+	
 	public double[] getEstLocation(double[] newSample) {
 		// given a new reading sample, return estimated location
+		return getEstLocation(new SparseSample(newSample));
+	}
+	
+	public double[] getEstLocation(SparseSample newSample) {
+		// same as above, for a sample that only lists its heard APs
+		// the pool's lock keeps a background load (setLazyLoading) from adding SVs in the middle of the query;
+		// the X and Y models share what they compute from the sample through one Query
 		double[] estLocation = new double[2];
-		estLocation[0] = ((double) getClassID("X", newSample) - 0.5) * (double) maxX / (double) (numClassesX+1);
-		estLocation[1] = ((double) getClassID("Y", newSample) - 0.5) * (double) maxY / (double) (numClassesY+1);
+		Query q = new Query(newSample);
+		synchronized (pool) {
+			estLocation[0] = (getClassID(modelX, q) - 0.5) * (double) maxX / (double) (numClassesX+1);
+			estLocation[1] = (getClassID(modelY, q) - 0.5) * (double) maxY / (double) (numClassesY+1);
+		}
 		return estLocation;
 	}
 	
 	public double[] getEstLocation_Enhanced(double[] newSample) {
 		// given a new reading sample, return estimated location
+		return getEstLocation_Enhanced(new SparseSample(newSample));
+	}
+	
+	public double[] getEstLocation_Enhanced(SparseSample newSample) {
+		// same as above, for a sample that only lists its heard APs
 		double[] estLocation = new double[2];
-		estLocation[0] = ((double) getClassID_Enhanced("X", newSample) - 0.5) * (double) maxX / (double) (numClassesX+1);
-		estLocation[1] = ((double) getClassID_Enhanced("Y", newSample) - 0.5) * (double) maxY / (double) (numClassesY+1);
+		Query q = new Query(newSample);
+		synchronized (pool) {
+			estLocation[0] = (getClassID_Enhanced(modelX, q) - 0.5) * (double) maxX / (double) (numClassesX+1);
+			estLocation[1] = (getClassID_Enhanced(modelY, q) - 0.5) * (double) maxY / (double) (numClassesY+1);
+		}
+		return estLocation;
+	}
+	
+	public double[][] getEstLocations(SparseSample[] samples) {
+		// getEstLocation() of each sample, evaluated as one batch
+		if (storage == TrainingModel.STORAGE_POOLED || numFeatures > 0) {
+			// the pool already shares the distances (or the Fourier features) of a sample among all the models,
+			// X and Y, one sample at a time
+			double[][] ret = new double[samples.length][];
+			for (int s=0; s < samples.length; s++)
+				ret[s] = getEstLocation(samples[s]);
+			return ret;
+		}
+		double[] classX, classY;
+		Query[] q = Query.of(samples);
+		synchronized (pool) {
+			classX = getClassIDs(modelX, q);
+			classY = getClassIDs(modelY, q);
+		}
+		return estLocations(classX, classY);
+	}
+	
+	public double[][] getEstLocations_Enhanced(SparseSample[] samples) {
+		// getEstLocation_Enhanced() of each sample, evaluated as one batch
+		if (storage == TrainingModel.STORAGE_POOLED || numFeatures > 0) {
+			// the pool already shares the distances (or the Fourier features) of a sample among all the models,
+			// X and Y, one sample at a time
+			double[][] ret = new double[samples.length][];
+			for (int s=0; s < samples.length; s++)
+				ret[s] = getEstLocation_Enhanced(samples[s]);
+			return ret;
+		}
+		double[] classX, classY;
+		Query[] q = Query.of(samples);
+		synchronized (pool) {
+			classX = getClassIDs_Enhanced(modelX, q);
+			classY = getClassIDs_Enhanced(modelY, q);
+		}
+		return estLocations(classX, classY);
+	}
+	
+	private double[][] estLocations(double[] classX, double[] classY) {
+		double[][] estLocation = new double[classX.length][2];
+		for (int s=0; s < classX.length; s++) {
+			estLocation[s][0] = (classX[s] - 0.5) * (double) maxX / (double) (numClassesX+1);
+			estLocation[s][1] = (classY[s] - 0.5) * (double) maxY / (double) (numClassesY+1);
+		}
 		return estLocation;
 	}
 	
@@ -210,39 +807,38 @@ public	class TestingTask implements Serializable {
 		double maxErr = 0.0;
 		
 		try {
-			FileInputStream fstream = new FileInputStream(rawDataFile +"_dir/" + testFile);
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+			TextScanner in = TextScanner.open(rawDataFile +"_dir/" + testFile);
 			
-			DataOutputStream output = new DataOutputStream(new FileOutputStream(predictFile));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(predictFile)));
 			
 			
-			double[] exactLocation = new double[2];
+			// the samples are located TrainingModel.BATCH_SAMPLES at a time, see getEstLocations()
+			int batchSize = TrainingModel.BATCH_SAMPLES;
+			SparseSample[] batch = new SparseSample[batchSize];
+			double[][] exactLocation = new double[batchSize][2];
+			String[] line = new String[batchSize]; // the testing samples as they are in the file
 			
-			String line;
 			int numTestSamples = 0;
-			while ((line = br.readLine()) != null)   {
-				//System.out.println(line);
-				numTestSamples++;
-				double [] newSample = new double[numAnchors];
-				
-				exactLocation[0] = new Double(line.split("#")[0].split(",")[0]);
-				exactLocation[1] = new Double(line.split("#")[0].split(",")[1]);
-				
-				String[] reading = line.split("#")[1].trim().split("\\s+");
-				
-				for (int j = 0; j < reading.length; j++) {
-					newSample[Integer.parseInt(reading[j].split(":")[0])-1] = new Double(reading[j].split(":")[1]);
+			int n = 0;
+			boolean more = true;
+			while (more)   {
+				more = in.nextLine();
+				if (more) {
+					numTestSamples++;
+					batch[n] = new SparseSample(readTestSample(in, exactLocation[n]));
+					line[n++] = in.lineString();
 				}
+				if (n < batchSize && (more || n == 0)) continue;
 				
-				
-				double[] estLocation = getEstLocation(newSample);
-				
-				double locationErr = Misc.euclideanDist(exactLocation,  estLocation);
-				avgErr += locationErr;
-				if (maxErr < locationErr) maxErr = locationErr;
-				
-				output.writeBytes(line + "#" +  estLocation[0] + "," +  estLocation[1] + "#" + locationErr + "\n");
+				double[][] estLocation = getEstLocations((n == batchSize)? batch : Arrays.copyOf(batch, n));
+				for (int s = 0; s < n; s++) {
+					double locationErr = Misc.euclideanDist(exactLocation[s],  estLocation[s]);
+					avgErr += locationErr;
+					if (maxErr < locationErr) maxErr = locationErr;
+					
+					output.writeBytes(line[s] + "#" +  estLocation[s][0] + "," +  estLocation[s][1] + "#" + locationErr + "\n");
+				}
+				n = 0;
 			}
 			in.close();
 			output.close();
@@ -272,39 +868,38 @@ public	class TestingTask implements Serializable {
 		double maxErr = 0.0;
 		
 		try {
-			FileInputStream fstream = new FileInputStream(rawDataFile +"_dir/" + testFile);
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+			TextScanner in = TextScanner.open(rawDataFile +"_dir/" + testFile);
 			
-			DataOutputStream output = new DataOutputStream(new FileOutputStream(predictFile));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(predictFile)));
 			
 			
-			double[] exactLocation = new double[2];
+			// the samples are located TrainingModel.BATCH_SAMPLES at a time, see getEstLocations_Enhanced()
+			int batchSize = TrainingModel.BATCH_SAMPLES;
+			SparseSample[] batch = new SparseSample[batchSize];
+			double[][] exactLocation = new double[batchSize][2];
+			String[] line = new String[batchSize]; // the testing samples as they are in the file
 			
-			String line;
 			int numTestSamples = 0;
-			while ((line = br.readLine()) != null)   {
-				//System.out.println(line);
-				numTestSamples++;
-				double [] newSample = new double[numAnchors];
-				
-				exactLocation[0] = new Double(line.split("#")[0].split(",")[0]);
-				exactLocation[1] = new Double(line.split("#")[0].split(",")[1]);
-				
-				String[] reading = line.split("#")[1].trim().split("\\s+");
-				
-				for (int j = 0; j < reading.length; j++) {
-					newSample[Integer.parseInt(reading[j].split(":")[0])-1] = new Double(reading[j].split(":")[1]);
+			int n = 0;
+			boolean more = true;
+			while (more)   {
+				more = in.nextLine();
+				if (more) {
+					numTestSamples++;
+					batch[n] = new SparseSample(readTestSample(in, exactLocation[n]));
+					line[n++] = in.lineString();
 				}
+				if (n < batchSize && (more || n == 0)) continue;
 				
-				
-				double[] estLocation = getEstLocation_Enhanced(newSample);
-				
-				double locationErr = Misc.euclideanDist(exactLocation,  estLocation);
-				avgErr += locationErr;
-				if (maxErr < locationErr) maxErr = locationErr;
-				
-				output.writeBytes(line + "#" +  estLocation[0] + "," +  estLocation[1] + "#" + locationErr + "\n");
+				double[][] estLocation = getEstLocations_Enhanced((n == batchSize)? batch : Arrays.copyOf(batch, n));
+				for (int s = 0; s < n; s++) {
+					double locationErr = Misc.euclideanDist(exactLocation[s],  estLocation[s]);
+					avgErr += locationErr;
+					if (maxErr < locationErr) maxErr = locationErr;
+					
+					output.writeBytes(line[s] + "#" +  estLocation[s][0] + "," +  estLocation[s][1] + "#" + locationErr + "\n");
+				}
+				n = 0;
 			}
 			in.close();
 			output.close();
@@ -319,57 +914,241 @@ public	class TestingTask implements Serializable {
 	}
 	
 	
-	public void predict_GridSVM(String testFile, int gridX, int gridY) {
+	public void compareStorage(String testFile, int storage1) {
+		// load every X/Y model a second time with the given storage (TrainingModel.STORAGE_*),
+		// run each testing sample through both sets of models and report
+		// how often contains() disagrees and how the location error changes
+		
+		String[] filesX = new String[numClassesX];
+		String[] filesY = new String[numClassesY];
+		for (int i = 0; i < numClassesX; i++) filesX[i] = modelFile("X", numClassesX, i);
+		for (int i = 0; i < numClassesY; i++) filesY[i] = modelFile("Y", numClassesY, i);
+		SupportVectorPool otherPool = new SupportVectorPool();
+		ModelArray otherX = new ModelArray(filesX, null, true, numAnchors, storage1, otherPool);
+		ModelArray otherY = new ModelArray(filesY, null, false, numAnchors, storage1, otherPool);
+		
+		int numTestSamples = 0;
+		int disagreeX = 0, disagreeY = 0; // number of contains() calls that disagree
+		int changedLocation = 0; // number of samples whose estimated location changed
+		double avgErr = 0, otherAvgErr = 0;
+		
+		try {
+			TextScanner in = TextScanner.open(rawDataFile +"_dir/" + testFile);
+			
+			double[] exactLocation = new double[2];
+			while (in.nextLine())   {
+				numTestSamples++;
+				SparseSample newSample = new SparseSample(readTestSample(in, exactLocation));
+				
+				synchronized (pool) {
+					for (int i = 0; i < numClassesX; i++)
+						if (modelX.get(i).contains(newSample) != otherX.get(i).contains(newSample)) disagreeX++;
+					for (int i = 0; i < numClassesY; i++)
+						if (modelY.get(i).contains(newSample) != otherY.get(i).contains(newSample)) disagreeY++;
+				}
+				
+				double[] estLocation = getEstLocation(newSample);
+				double[] otherLocation = new double[2];
+				Query other = new Query(newSample);
+				otherLocation[0] = (getClassID(otherX, other) - 0.5) * (double) maxX / (double) (numClassesX+1);
+				otherLocation[1] = (getClassID(otherY, other) - 0.5) * (double) maxY / (double) (numClassesY+1);
+				if (estLocation[0] != otherLocation[0] || estLocation[1] != otherLocation[1]) changedLocation++;
+				
+				avgErr += Misc.euclideanDist(exactLocation, estLocation);
+				otherAvgErr += Misc.euclideanDist(exactLocation, otherLocation);
+			}
+			in.close();
+		} catch(Exception e) {
+			System.out.println("Failed compareStorage()");
+			e.printStackTrace();
+			System.exit(-1);
+		}
+		
+		avgErr = avgErr / (double) numTestSamples;
+		otherAvgErr = otherAvgErr / (double) numTestSamples;
+		System.out.println("storage " + storage + " vs " + storage1 + ": " + numTestSamples + " samples");
+		System.out.println("contains() disagreements: X = " + disagreeX + "/" + (numTestSamples*numClassesX) +
+				", Y = " + disagreeY + "/" + (numTestSamples*numClassesY));
+		System.out.println("estimated location changed for " + changedLocation + " samples");
+		System.out.println("avgErr = " + avgErr + ", avgErr with storage " + storage1 + " = " + otherAvgErr +
+				", delta = " + (otherAvgErr - avgErr));
+	}
+	
+	public void compareFourier(String testFile, int numFeatures1, long seed1, double margin1) throws IOException {
+		// load every X/Y model a second time, compiled into a linear model as setFourierFeatures(numFeatures1, seed1,
+		// margin1) would, run each testing sample through every model of both sets and report how often contains()
+		// disagrees (overall and for the worst model), how the location error changes, and the time of a sweep
+		// through all the models with each set
+		// A model or a testing file that cannot be read is reported with an IOException, as by setNumClasses()
+		
+		String[] filesX = new String[numClassesX];
+		String[] filesY = new String[numClassesY];
+		for (int i = 0; i < numClassesX; i++) filesX[i] = modelFile("X", numClassesX, i);
+		for (int i = 0; i < numClassesY; i++) filesY[i] = modelFile("Y", numClassesY, i);
+		SupportVectorPool otherPool = new SupportVectorPool();
+		ModelArray otherX = new ModelArray(filesX, null, true, numAnchors, storage, otherPool);
+		ModelArray otherY = new ModelArray(filesY, null, false, numAnchors, storage, otherPool);
+		
+		int numTestSamples = 0;
+		int[] disagreeX = new int[numClassesX], disagreeY = new int[numClassesY]; // contains() calls that disagree, by model
+		int changedLocation = 0; // number of samples whose estimated location changed
+		double avgErr = 0, otherAvgErr = 0;
+		long exactTime = 0, linearTime = 0; // nanoseconds spent in the sweeps
+		
+		TextScanner in = null;
+		try {
+			otherX.setFourierFeatures(numFeatures1, seed1, margin1);
+			otherY.setFourierFeatures(numFeatures1, seed1, margin1);
+			otherX.loadAll();
+			otherY.loadAll();
+			in = TextScanner.open(rawDataFile +"_dir/" + testFile);
+			
+			double[] exactLocation = new double[2];
+			boolean[] labelX = new boolean[numClassesX], labelY = new boolean[numClassesY];
+			while (in.nextLine())   {
+				numTestSamples++;
+				SparseSample newSample = new SparseSample(readTestSample(in, exactLocation));
+				
+				synchronized (pool) {
+					long t0 = System.nanoTime();
+					for (int i = 0; i < numClassesX; i++) labelX[i] = modelX.get(i).contains(newSample);
+					for (int i = 0; i < numClassesY; i++) labelY[i] = modelY.get(i).contains(newSample);
+					exactTime += System.nanoTime() - t0;
+				}
+				synchronized (otherPool) {
+					long t0 = System.nanoTime();
+					for (int i = 0; i < numClassesX; i++)
+						if (otherX.get(i).contains(newSample) != labelX[i]) disagreeX[i]++;
+					for (int i = 0; i < numClassesY; i++)
+						if (otherY.get(i).contains(newSample) != labelY[i]) disagreeY[i]++;
+					linearTime += System.nanoTime() - t0;
+				}
+				
+				double[] estLocation = getEstLocation(newSample);
+				double[] otherLocation = new double[2];
+				Query other = new Query(newSample);
+				synchronized (otherPool) {
+					otherLocation[0] = (getClassID(otherX, other) - 0.5) * (double) maxX / (double) (numClassesX+1);
+					otherLocation[1] = (getClassID(otherY, other) - 0.5) * (double) maxY / (double) (numClassesY+1);
+				}
+				if (estLocation[0] != otherLocation[0] || estLocation[1] != otherLocation[1]) changedLocation++;
+				
+				avgErr += Misc.euclideanDist(exactLocation, estLocation);
+				otherAvgErr += Misc.euclideanDist(exactLocation, otherLocation);
+			}
+		} catch(IOException e) {
+			throw new IOException("Failed compareFourier(): " + e.getMessage(), e);
+		} catch(RuntimeException e) {
+			// a malformed testing sample
+			throw new IOException("Failed compareFourier(): " + e, e);
+		} finally {
+			if (in != null) in.close();
+		}
+		
+		int totalX = 0, totalY = 0, worstX = 0, worstY = 0;
+		for (int i = 0; i < numClassesX; i++) {
+			totalX += disagreeX[i];
+			if (disagreeX[i] > disagreeX[worstX]) worstX = i;
+		}
+		for (int i = 0; i < numClassesY; i++) {
+			totalY += disagreeY[i];
+			if (disagreeY[i] > disagreeY[worstY]) worstY = i;
+		}
+		avgErr = avgErr / (double) numTestSamples;
+		otherAvgErr = otherAvgErr / (double) numTestSamples;
+		System.out.println(numFeatures1 + " Fourier features (seed " + seed1 + ", margin " + margin1 + ") vs kernels: " +
+				numTestSamples + " samples");
+		System.out.println("contains() agreement: X = " + (numTestSamples*numClassesX - totalX) + "/" + (numTestSamples*numClassesX) +
+				", Y = " + (numTestSamples*numClassesY - totalY) + "/" + (numTestSamples*numClassesY));
+		System.out.println("worst models: X" + (worstX+1) + " disagrees on " + disagreeX[worstX] + "/" + numTestSamples +
+				", Y" + (worstY+1) + " on " + disagreeY[worstY] + "/" + numTestSamples);
+		System.out.println("estimated location changed for " + changedLocation + " samples");
+		System.out.println("avgErr = " + avgErr + ", avgErr with Fourier features = " + otherAvgErr +
+				", delta = " + (otherAvgErr - avgErr));
+		System.out.println("sweep of all " + (numClassesX + numClassesY) + " models: kernels " + exactTime/1e6 +
+				" ms, linear " + linearTime/1e6 + " ms");
+	}
+	
+	private double[] readTestSample(TextScanner in, double[] exactLocation) {
+		// parse the current line of a testing file: "x,y#id:rssi id:rssi ..."
+		// the exact location goes to exactLocation, the reading is returned
+		double [] newSample = new double[numAnchors];
+		
+		readLocation(in, exactLocation);
+		if (!in.skip('#')) throw new NumberFormatException("missing '#'");
+		while (in.hasNext()) {
+			int j = in.nextInt()-1;
+			if (!in.skip(':')) throw new NumberFormatException("missing ':'");
+			newSample[j] = in.nextDouble();
+		}
+		return newSample;
+	}
+	
+	private static void readLocation(TextScanner in, double[] exactLocation) {
+		// the "x,y" at the start of the current line of a testing file
+		exactLocation[0] = in.nextDouble();
+		if (!in.skip(',')) throw new NumberFormatException("missing ','");
+		exactLocation[1] = in.nextDouble();
+	}
+	
+	public void predict_GridSVM(String testFile, int gridX, int gridY) throws IOException {
 		// for each testing sample, predict its location using multi-class grid SVM
 			
 		
 		String testFile1 = rawDataFile +"_dir/" + testFile + "_dir/grid_classes/grid_X" + gridX + "_Y" + gridY + ".txt";
-		String temp_predict = testFile + ".predict"; // this temp file will be deleted after the function is finished
 		String predictFile = rawDataFile +"_dir/" + trainFile + "_dir/predict/" + testFile + "_grid_X" + gridX + "_Y" + gridY + ".predict";
 				
-		TrainingModel model = new TrainingModel(rawDataFile +"_dir/" + trainFile + "_dir/grid_classes/grid_X" + gridX + "_Y" + gridY + ".txt", numAnchors);
-		model.predictFile(testFile1, temp_predict);
+		MultiClassModel model = MultiClassModel.load(rawDataFile +"_dir/" + trainFile + "_dir/grid_classes/grid_X" + gridX + "_Y" + gridY + ".txt", numAnchors);
 		
 		// now compute location
 		double avgErr = 0;
 		double maxErr = 0.0;
-		double[] exactLocation = new double[2];
 		int numTestSamples = 0;
+		// the samples are predicted TrainingModel.BATCH_SAMPLES at a time, see MultiClassModel.predictLabels()
+		int batchSize = TrainingModel.BATCH_SAMPLES;
+		SparseSample[] batch = new SparseSample[batchSize];
+		double[][] exactLocation = new double[batchSize][2];
+		String[] line = new String[batchSize]; // the testing samples as they are in the file
 
 		try {
-			DataInputStream in = new DataInputStream(new FileInputStream(temp_predict));
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+			// testFile1 has the samples of the testing file in libsvm format, line by line
+			TextScanner in = TextScanner.open(testFile1);
 			
-			DataInputStream in1 = new DataInputStream(new FileInputStream(rawDataFile +"_dir/" + testFile));
-			BufferedReader br1 = new BufferedReader(new InputStreamReader(in1));
+			TextScanner in1 = TextScanner.open(rawDataFile +"_dir/" + testFile);
 			
-    	    DataOutputStream output = new DataOutputStream(new FileOutputStream(predictFile));
+    	    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(predictFile)));
     	    
-    	    String strLine;
-			while ((strLine = br1.readLine()) != null)   {
-    	    	numTestSamples++;
-    	    	
-    	    	exactLocation[0] = new Double(strLine.split("#")[0].split(",")[0]);
-    	    	exactLocation[1] = new Double(strLine.split("#")[0].split(",")[1]);
-    	    	
-    	    	
-    	    	// read class label
-    	    	String line = br.readLine();
-    	    	int label = Integer.parseInt(line.split(" ")[0]);
-    	    	int cellX = label / gridY + 1;
-    	    	int cellY = label % gridY + 1;
-    	    	double[] estLocation = new double[2];
-    	    	estLocation[0] = ((double) cellX-0.5) * (double) maxX / (double) gridX;
-    	    	estLocation[1] = ((double) cellY-0.5) * (double) maxY / (double) gridY;
-    	    	
-    	    	
-    	    	double locationErr = Misc.euclideanDist(exactLocation, estLocation);
-				avgErr += locationErr;
-				if (maxErr < locationErr) maxErr = locationErr;
+			int n = 0;
+			boolean more = true;
+			while (more)   {
+				more = in1.nextLine();
+				if (more) {
+	    	    	numTestSamples++;
+	    	    	readLocation(in1, exactLocation[n]);
+	    	    	line[n] = in1.lineString();
+	    	    	if (!in.nextLine()) throw new EOFException(testFile1 + " has fewer samples than " + testFile);
+	    	    	batch[n++] = TrainingModel.readSample(in, numAnchors);
+				}
+				if (n < batchSize && (more || n == 0)) continue;
+				
+    	    	// predict class labels
+    	    	int[] label = model.predictLabels((n == batchSize)? batch : Arrays.copyOf(batch, n));
+    	    	for (int s = 0; s < n; s++) {
+	    	    	int cellX = label[s] / gridY + 1;
+	    	    	int cellY = label[s] % gridY + 1;
+	    	    	double[] estLocation = new double[2];
+	    	    	estLocation[0] = ((double) cellX-0.5) * (double) maxX / (double) gridX;
+	    	    	estLocation[1] = ((double) cellY-0.5) * (double) maxY / (double) gridY;
+	    	    	
+	    	    	
+	    	    	double locationErr = Misc.euclideanDist(exactLocation[s], estLocation);
+					avgErr += locationErr;
+					if (maxErr < locationErr) maxErr = locationErr;
 					
-				output.writeBytes(strLine + "#" + (int) estLocation[0] + "," + (int) estLocation[1] + "#" + locationErr + "\n");
+					output.writeBytes(line[s] + "#" + (int) estLocation[0] + "," + (int) estLocation[1] + "#" + locationErr + "\n");
+    	    	}
+    	    	n = 0;
 			}
-			new File(temp_predict).delete();
 			in.close();
 			in1.close();
 			output.close();
@@ -384,66 +1163,67 @@ public	class TestingTask implements Serializable {
 		}
 	}
 	
-	public void predict_StripeSVM(String testFile, int numClassesX, int numClassesY) {
+	public void predict_StripeSVM(String testFile, int numClassesX, int numClassesY) throws IOException {
 		// for each testing sample, predict its location using multi-class stripe SVM
 		
 		String predictFile = rawDataFile +"_dir/" + trainFile + "_dir/predict/" + testFile + "_stripe_X" + numClassesX + "_Y" + numClassesY + ".predict";
 				
-		String temp_predict_X = testFile + ".predict.X"; // this temp file will be deleted after the function is finished
-		String temp_predict_Y = testFile + ".predict.Y"; // this temp file will be deleted after the function is finished
-		
-		
-		TrainingModel model;
-		
-		model = new TrainingModel(rawDataFile +"_dir/" + trainFile + "_dir/stripe_classes/stripe_X" + numClassesX + ".txt", numAnchors);
-		model.predictFile(rawDataFile +"_dir/" + testFile + "_dir/stripe_classes/stripe_X" + numClassesX + ".txt", temp_predict_X);
-		
-		model = new TrainingModel(rawDataFile +"_dir/" + trainFile + "_dir/stripe_classes/stripe_Y" + numClassesY + ".txt", numAnchors);
-		model.predictFile(rawDataFile +"_dir/" + testFile + "_dir/stripe_classes/stripe_Y" + numClassesY + ".txt", temp_predict_Y);
+		MultiClassModel model_X = MultiClassModel.load(rawDataFile +"_dir/" + trainFile + "_dir/stripe_classes/stripe_X" + numClassesX + ".txt", numAnchors);
+		MultiClassModel model_Y = MultiClassModel.load(rawDataFile +"_dir/" + trainFile + "_dir/stripe_classes/stripe_Y" + numClassesY + ".txt", numAnchors);
 		
 		
 		// now compute location
 		double avgErr = 0;
 		double maxErr = 0.0;
-		double[] exactLocation = new double[2];
 		int numTestSamples = 0;
+		// the samples are predicted TrainingModel.BATCH_SAMPLES at a time, see MultiClassModel.predictLabels()
+		int batchSize = TrainingModel.BATCH_SAMPLES;
+		SparseSample[] batch_X = new SparseSample[batchSize];
+		SparseSample[] batch_Y = new SparseSample[batchSize];
+		double[][] exactLocation = new double[batchSize][2];
+		String[] line = new String[batchSize]; // the testing samples as they are in the file
 
 		try {
-			DataInputStream in_X = new DataInputStream(new FileInputStream(temp_predict_X));
-			BufferedReader br_X = new BufferedReader(new InputStreamReader(in_X));
+			// the samples of the testing file in libsvm format, line by line
+			TextScanner in_X = TextScanner.open(rawDataFile +"_dir/" + testFile + "_dir/stripe_classes/stripe_X" + numClassesX + ".txt");
 			
-			DataInputStream in_Y = new DataInputStream(new FileInputStream(temp_predict_Y));
-			BufferedReader br_Y = new BufferedReader(new InputStreamReader(in_Y));
+			TextScanner in_Y = TextScanner.open(rawDataFile +"_dir/" + testFile + "_dir/stripe_classes/stripe_Y" + numClassesY + ".txt");
 			
-			DataInputStream in1 = new DataInputStream(new FileInputStream(rawDataFile +"_dir/" + testFile));
-			BufferedReader br1 = new BufferedReader(new InputStreamReader(in1));
+			TextScanner in1 = TextScanner.open(rawDataFile +"_dir/" + testFile);
 			
-    	    DataOutputStream output = new DataOutputStream(new FileOutputStream(predictFile));
+    	    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(predictFile)));
     	    
-    	    String strLine, strLine_X, strLine_Y;
-			while ((strLine = br1.readLine()) != null)   {
-				//System.out.println(strLine);
-    	    	numTestSamples++;
-    	    	exactLocation[0] = new Double(strLine.split("#")[0].split(",")[0]);
-    	    	exactLocation[1] = new Double(strLine.split("#")[0].split(",")[1]);
-    	    	
-    	    	// read X class label
-    	       	double labelX = new Double(br_X.readLine().split(" ")[0]);
-    	       	double labelY = new Double(br_Y.readLine().split(" ")[0]);
-    	    	double[] estLocation = new double[2];
-    	    	estLocation[0] = (labelX+0.5) * (double) maxX / (double) numClassesX;
-    	    	estLocation[1] = (labelY+0.5) * (double) maxY / (double) numClassesY;
-    	    	
-    	    	
-    	    	double locationErr = Misc.euclideanDist(exactLocation, estLocation);
-				avgErr += locationErr;
-				if (maxErr < locationErr) maxErr = locationErr;
+			int n = 0;
+			boolean more = true;
+			while (more)   {
+				more = in1.nextLine();
+				if (more) {
+	    	    	numTestSamples++;
+	    	    	readLocation(in1, exactLocation[n]);
+	    	    	line[n] = in1.lineString();
+	    	    	if (!in_X.nextLine() || !in_Y.nextLine()) throw new EOFException("stripe classes with fewer samples than " + testFile);
+	    	    	batch_X[n] = TrainingModel.readSample(in_X, numAnchors);
+	    	    	batch_Y[n++] = TrainingModel.readSample(in_Y, numAnchors);
+				}
+				if (n < batchSize && (more || n == 0)) continue;
+				
+    	    	// predict X and Y class labels
+    	       	int[] labelX = model_X.predictLabels((n == batchSize)? batch_X : Arrays.copyOf(batch_X, n));
+    	       	int[] labelY = model_Y.predictLabels((n == batchSize)? batch_Y : Arrays.copyOf(batch_Y, n));
+    	       	for (int s = 0; s < n; s++) {
+	    	    	double[] estLocation = new double[2];
+	    	    	estLocation[0] = ((double) labelX[s]+0.5) * (double) maxX / (double) numClassesX;
+	    	    	estLocation[1] = ((double) labelY[s]+0.5) * (double) maxY / (double) numClassesY;
+	    	    	
+	    	    	
+	    	    	double locationErr = Misc.euclideanDist(exactLocation[s], estLocation);
+					avgErr += locationErr;
+					if (maxErr < locationErr) maxErr = locationErr;
 					
-				output.writeBytes(strLine + "#" + (int) estLocation[0] + "," + (int) estLocation[1] + "#" + locationErr + "\n");
+					output.writeBytes(line[s] + "#" + (int) estLocation[0] + "," + (int) estLocation[1] + "#" + locationErr + "\n");
+    	       	}
+    	       	n = 0;
 			}
-			new File(temp_predict_X).delete();
-			new File(temp_predict_Y).delete();
-			
 			in1.close();
 			in_X.close();
 			in_Y.close();
@@ -0,0 +1,270 @@
+package com.tracme.training;
+
+// line-by-line tokenizer for the text files of the package (libsvm .model/.range/.log files, testing samples, raw data)
+// Numbers are parsed in place from the bytes of the current line, so reading "x,y#1:-49 2:-71 ..." or an SV line
+// creates no String, no array and no boxed value (split() creates several of each per line).
+// Files are read as ASCII. A line is loaded with nextLine(); the other methods move through it and skip
+// spaces and tabs before each item. A number that is missing or malformed raises a NumberFormatException.
+// NOTE: a scanner is used by one thread at a time
+
+import java.io.*;
+
+class TextScanner {
+	// powers of 10 that are exact doubles, see nextDouble()
+	private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final long MAX_EXACT = 1L << 53; // integers up to this are exact doubles
+	
+	private InputStream in;
+	private byte[] buf = new byte[8192]; // bytes read from in and not yet moved to line
+	private int bufPos, bufLimit;
+	private byte[] line = new byte[256]; // current line, without its end of line
+	private int lineLength;
+	private int pos; // next byte of line to read
+	private int lineNumber;
+	
+	TextScanner(InputStream in1) {
+		in = in1;
+	}
+	
+	static TextScanner open(File file) throws IOException {
+		return new TextScanner(new FileInputStream(file));
+	}
+	
+	static TextScanner open(String fileName) throws IOException {
+		return new TextScanner(new FileInputStream(fileName));
+	}
+	
+	void close() throws IOException {
+		in.close();
+	}
+	
+	boolean nextLine() throws IOException {
+		// load the next line; false at the end of the file
+		lineLength = 0;
+		pos = 0;
+		boolean any = false;
+		while (true) {
+			if (bufPos == bufLimit) {
+				bufLimit = in.read(buf, 0, buf.length);
+				bufPos = 0;
+				if (bufLimit <= 0) {
+					bufLimit = 0;
+					if (any) lineNumber++;
+					return any;
+				}
+			}
+			any = true;
+			byte b = buf[bufPos++];
+			if (b == '\n') break;
+			if (lineLength == line.length) {
+				byte[] newLine = new byte[2*line.length];
+				System.arraycopy(line, 0, newLine, 0, lineLength);
+				line = newLine;
+			}
+			line[lineLength++] = b;
+		}
+		if (lineLength > 0 && line[lineLength-1] == '\r') lineLength--;
+		lineNumber++;
+		return true;
+	}
+	
+	private void skipSpaces() {
+		while (pos < lineLength && (line[pos] == ' ' || line[pos] == '\t')) pos++;
+	}
+	
+	boolean hasNext() {
+		// true if the rest of the line is not blank
+		skipSpaces();
+		return pos < lineLength;
+	}
+	
+	boolean skip(char c) {
+		// consume c if it is the next item
+		skipSpaces();
+		if (pos < lineLength && line[pos] == c) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+	
+	boolean find(String s) {
+		// move past the next occurrence of s on the line; false (and at the end of the line) if there is none
+		int n = s.length();
+		for (int p = pos; p + n <= lineLength; p++) {
+			int k = 0;
+			while (k < n && line[p+k] == s.charAt(k)) k++;
+			if (k == n) {
+				pos = p + n;
+				return true;
+			}
+		}
+		pos = lineLength;
+		return false;
+	}
+	
+	boolean startsWith(String s) {
+		// true if the rest of the line starts with s
+		int n = s.length();
+		if (pos + n > lineLength) return false;
+		for (int k = 0; k < n; k++)
+			if (line[pos+k] != s.charAt(k)) return false;
+		return true;
+	}
+	
+	void skipToken() {
+		skipSpaces();
+		while (pos < lineLength && line[pos] != ' ' && line[pos] != '\t') pos++;
+	}
+	
+	String nextToken() {
+		// the next item up to a space, as a String
+		skipSpaces();
+		int start = pos;
+		while (pos < lineLength && line[pos] != ' ' && line[pos] != '\t') pos++;
+		return toString(start, pos);
+	}
+	
+	int position() {
+		// where the scanner is on the line, for rest(start)
+		return pos;
+	}
+	
+	String rest() {
+		// the rest of the line, as a String
+		return rest(pos);
+	}
+	
+	String rest(int start) {
+		// the line from start (a position()) to its end, as a String; the scanner moves to the end
+		String ret = toString(start, lineLength);
+		pos = lineLength;
+		return ret;
+	}
+	
+	String lineString() {
+		return toString(0, lineLength);
+	}
+	
+	String lineString(char c, char with) {
+		// the line as a String, with every c replaced by with (in the one copy toString() makes)
+		char[] chars = new char[lineLength];
+		for (int k = 0; k < lineLength; k++) {
+			chars[k] = (char) (line[k] & 0xff);
+			if (chars[k] == c) chars[k] = with;
+		}
+		return new String(chars);
+	}
+	
+	void writeLine(OutputStream out) throws IOException {
+		// copy the current line, without its end of line, to out
+		out.write(line, 0, lineLength);
+	}
+	
+	int nextInt() {
+		skipSpaces();
+		int start = pos;
+		boolean neg = false;
+		if (pos < lineLength && (line[pos] == '-' || line[pos] == '+')) neg = (line[pos++] == '-');
+		long ret = 0;
+		int digits = 0;
+		while (pos < lineLength && line[pos] >= '0' && line[pos] <= '9') {
+			ret = 10*ret + (line[pos++] - '0');
+			if (++digits > 10) throw error("int", start);
+		}
+		if (digits == 0) throw error("int", start);
+		if (neg) ret = -ret;
+		if (ret < Integer.MIN_VALUE || ret > Integer.MAX_VALUE) throw error("int", start);
+		return (int) ret;
+	}
+	
+	double nextDouble() {
+		// decimal digits are accumulated in a long; when that integer is exact as a double (at most 2^53) and the
+		// decimal exponent is within 22, the result is one correctly rounded multiplication or division by an exact
+		// power of 10, hence the same as Double.parseDouble(). Other numbers go to Double.parseDouble()
+		skipSpaces();
+		int start = pos;
+		boolean neg = false;
+		if (pos < lineLength && (line[pos] == '-' || line[pos] == '+')) neg = (line[pos++] == '-');
+		long mantissa = 0;
+		int digits = 0; // significant digits in mantissa
+		int exp = 0;
+		boolean any = false, exact = true;
+		while (pos < lineLength && line[pos] >= '0' && line[pos] <= '9') {
+			if (digits < 18) {
+				mantissa = 10*mantissa + (line[pos] - '0');
+				if (mantissa != 0) digits++;
+			}
+			else {
+				exact = false;
+			}
+			any = true;
+			pos++;
+		}
+		if (pos < lineLength && line[pos] == '.') {
+			pos++;
+			while (pos < lineLength && line[pos] >= '0' && line[pos] <= '9') {
+				if (digits < 18) {
+					mantissa = 10*mantissa + (line[pos] - '0');
+					if (mantissa != 0) digits++;
+					exp--;
+				}
+				else {
+					exact = false;
+				}
+				any = true;
+				pos++;
+			}
+		}
+		if (!any) {
+			// e.g. "nan", "inf": leave it to Double.parseDouble()
+			while (pos < lineLength && Character.isLetter(line[pos])) pos++;
+			return parseDouble(start);
+		}
+		if (pos < lineLength && (line[pos] == 'e' || line[pos] == 'E')) {
+			pos++;
+			boolean expNeg = false;
+			if (pos < lineLength && (line[pos] == '-' || line[pos] == '+')) expNeg = (line[pos++] == '-');
+			int e = 0, expDigits = 0;
+			while (pos < lineLength && line[pos] >= '0' && line[pos] <= '9') {
+				if (e < 10000) e = 10*e + (line[pos] - '0');
+				expDigits++;
+				pos++;
+			}
+			if (expDigits == 0) throw error("double", start);
+			exp += expNeg? -e : e;
+		}
+	
+		if (exact && mantissa <= MAX_EXACT) {
+			double ret;
+			if (mantissa == 0) ret = 0;
+			else if (exp == 0) ret = mantissa;
+			else if (exp > 0 && exp < POW10.length) ret = mantissa * POW10[exp];
+			else if (exp < 0 && -exp < POW10.length) ret = mantissa / POW10[-exp];
+			else return parseDouble(start);
+			return neg? -ret : ret;
+		}
+		return parseDouble(start);
+	}
+	
+	private double parseDouble(int start) {
+		try {
+			return Double.parseDouble(toString(start, pos));
+		}
+		catch (NumberFormatException e) {
+			throw error("double", start);
+		}
+	}
+	
+	private NumberFormatException error(String what, int start) {
+		int end = Math.max(pos, Math.min(start+1, lineLength));
+		return new NumberFormatException("line " + lineNumber + ": bad " + what + " \"" + toString(start, end) + "\"");
+	}
+	
+	private String toString(int start, int end) {
+		char[] chars = new char[end-start];
+		for (int k = start; k < end; k++) chars[k-start] = (char) (line[k] & 0xff);
+		return new String(chars);
+	}
+}
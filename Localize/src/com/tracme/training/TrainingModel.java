@@ -4,6 +4,8 @@ package com.tracme.training;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -19,173 +21,173 @@ public	class TrainingModel implements Serializable {
 	/**
 	 * 
 	 */
-	private static final long serialVersionUID = -3955216371610525127L;
+	private static final long serialVersionUID = 1468839027563416706L;
+	
+	// how the support vectors are kept in memory; see SupportVectors
+	public static final int STORAGE_DOUBLE = 0; // full precision (default)
+	public static final int STORAGE_FLOAT = 1; // single precision SVs, alphas and scale ranges
+	public static final int STORAGE_INT8 = 2; // SVs quantized to bytes in the unscaled RSSI domain (raw values 0..255), else FLOAT
+	public static final int STORAGE_POOLED = 3; // full precision SVs shared with other models through a SupportVectorPool
+	public static final int STORAGE_DIRECT = 4; // full precision SVs in a direct ByteBuffer, off the heap of server JVMs only
+	static final int BATCH_TILE = 32; // SVs per tile of the batch decision values, see kernelSums()
+	static final double MAX_DENSE_ERROR = 1e-6; // relative kernel error above which kernelSums() leaves out the dense path
+	static final int BATCH_SAMPLES = 256; // samples per batch of predictFile() and of the predict methods of TestingTask
+	
 	public int total_sv; // number of support vectors	
 	public double training_accuracy; // accuracy of SVM training
 	
 	private String trainFile; // name of training file, given by constructor method
-	private double[][] sv_list; // store list of support vectors
+	private int storage; // one of the STORAGE_* values
+	private SupportVectorPool pool; // shared scaling of models with the same .range file, and the SVs with STORAGE_POOLED
+	private SupportVectors svs; // support vectors and alphas, sorted by |alpha| in decreasing order; null when there is no SV
+	private double[] rest_pos; // rest_pos[i]: sum of the positive alphas of SVs i..total_sv-1
+	private double[] rest_neg; // rest_neg[i]: sum of |alpha| of the negative alphas of SVs i..total_sv-1
+	private ExpFunction expFunction; // approximate exp() for the kernel; null means Math.exp
+	private double expMargin; // extra margin around 0 in which an approximate decision value is recomputed exactly
 	private int numAnchors;		
 	private double gamma;
 	private double rho;
-	private String label; // list of labels in sv_list; label can be "-1" (when all samples are negative), "1" (all samples are positive), or "1 -1" (mix)
+	private String label; // list of labels in the model; label can be "-1" (when all samples are negative), "1" (all samples are positive), or "1 -1" (mix)
+	private double labelSign; // numeric value of the first label, used as the sign of the decision function
 	private double lo, hi; // low and high bounds for scaling
-	private double [][] attrRange; // range of each attribute in a sample
+	private double [][] attrRange; // range of each attribute in a sample; shared by the models of the pool with the same range
+	private ScaleRange range; // the pool's compiled form of lo, hi and attrRange
+	private FourierFeatures fourier; // the model compiled into a linear model, see setFourierFeatures(); null for the kernel
+	private double[] fourierWeight; // weight of the linear model
+	private double fourierMargin; // decision values of the linear model within this margin of 0 are recomputed exactly
+	transient private MultiClassModel multiClass; // the model as a multi-class model, see predictLabel(); null until needed
 	
 		
-	TrainingModel(String trainFile1, int numAnchors1){
+	TrainingModel(String trainFile1, int numAnchors1) throws IOException {
+		this(trainFile1, numAnchors1, STORAGE_DOUBLE);
+	}
+	
+	TrainingModel(String trainFile1, int numAnchors1, int storage1) throws IOException {
+		this(trainFile1, numAnchors1, storage1, null);
+	}
+	
+	TrainingModel(String trainFile1, int numAnchors1, int storage1, SupportVectorPool pool1) throws IOException {
+		// the compiled copy of the model from the ModelCache when there is one, see ModelFile
+		this(trainFile1, numAnchors1, storage1, pool1, ModelFile.load(trainFile1, numAnchors1));
+	}
+	
+	TrainingModel(String trainFile1, int numAnchors1, int storage1, SupportVectorPool pool1, ModelFile file){
+		// models loaded with the same pool1 share their scaling (and their SVs with STORAGE_POOLED);
+		// if it is null the model gets a pool of its own
 		trainFile = trainFile1;
 		numAnchors = numAnchors1;	
+		storage = storage1;
+		pool = (pool1 == null)? new SupportVectorPool() : pool1;
 		
-		getScaleParameters();
-		getModelParameters();
-		getTrainingAccuracy();
+		lo = file.lo;
+		hi = file.hi;
+		range = pool.getScaleRange(file.attrRange, lo, hi);
+		attrRange = range.attrRange();
+		training_accuracy = file.training_accuracy;
+		gamma = file.gamma;
+		rho = file.rho;
+		label = file.label;
+		labelSign = Double.parseDouble(label);
+		total_sv = file.total_sv;
+		if (total_sv > 0) setSupportVectors(file.sv_start, file.sv_index, file.sv_value, file.sv_coef);
 	}
+	
+	private void setSupportVectors(int[] sv_start, final int[] sv_index, double[] sv_value, final double[] sv_coef) {
+		// store the SVs (CSR arrays, as read from the .model file) in the chosen storage,
+		// ordered by |alpha| so that decisionFunction() sees the largest contributions first
+		Integer[] order = new Integer[total_sv];
+		for (int i=0;i<total_sv;i++) order[i]=i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(Math.abs(sv_coef[b]), Math.abs(sv_coef[a]));
+			}
+		});
 		
-	private void getScaleParameters(){
-		lo=hi=0;
-		attrRange=new double[numAnchors][2];
-		
-		// Create Android Log for each trainfile
-		AndroidLog trainFileLog = new AndroidLog(trainFile + ".range", true);
-		
-		try{
-			//CHANGED FOR ANDROID: FileInputStream fstream = new FileInputStream(trainFile + ".range");
-			FileInputStream fstream = trainFileLog.inputStream;
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-				
-			String strLine;
-			strLine=br.readLine(); // skip 1st line
-				
-			// read low and hi
-			strLine=br.readLine();
-			lo=Double.parseDouble(strLine.split(" ")[0]);
-			hi=Double.parseDouble(strLine.split(" ")[1]);
-				//System.out.println("Hello\n");
-			// read range for each attribute
-			while ((strLine = br.readLine()) != null) {
-				//System.out.println(strLine);
-				String[] str = strLine.split(" ");
-				int i = Integer.parseInt(str[0])-1; // index starts at zero
-				attrRange[i][0]=Double.parseDouble(str[1]);
-				attrRange[i][1]=Double.parseDouble(str[2]);
+		double[] coef=new double[total_sv];
+		int[] start=new int[total_sv+1];
+		int[] index=new int[sv_index.length];
+		double[] value=new double[sv_value.length];
+		int nnz=0;
+		for (int i=0;i<total_sv;i++) {
+			int j=order[i];
+			coef[i]=sv_coef[j];
+			start[i]=nnz;
+			for (int k=sv_start[j];k<sv_start[j+1];k++) {
+				index[nnz]=sv_index[k];
+				value[nnz]=sv_value[k];
+				nnz++;
 			}
 		}
-		catch(Exception e){
-			System.err.println("Failed getScaleParameters()" + e.getMessage());
-			e.printStackTrace();
-		}
-	}
+		start[total_sv]=nnz;
 		
-	private void getTrainingAccuracy() {
-		// Create Android Log for each trainfile
-		AndroidLog trainLog = new AndroidLog(trainFile + ".log", true);
+		// a model whose raw values do not fit a byte (trained on dBm levels, say) keeps floats with STORAGE_INT8
+		if (storage == STORAGE_FLOAT || (storage == STORAGE_INT8 && !QuantizedSupportVectors.fits(attrRange, lo, hi)))
+			svs=new FloatSupportVectors(start, index, value, coef, attrRange, lo, hi);
+		else if (storage == STORAGE_INT8)
+			svs=new QuantizedSupportVectors(start, index, value, coef, attrRange, lo, hi);
+		else if (storage == STORAGE_POOLED)
+			svs=new PooledSupportVectors(pool, start, index, value, coef, range, gamma);
+		else if (storage == STORAGE_DIRECT)
+			svs=new DirectSupportVectors(start, index, value, coef, range);
+		else
+			svs=new DoubleSupportVectors(start, index, value, coef, range);
 		
-		try{
-			//CHANGED FOR ANDROID: FileInputStream fstream = new FileInputStream(trainFile + ".log");
-			FileInputStream fstream = trainLog.inputStream;
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-				
-			String strLine;
-				
-			strLine=br.readLine();
-			strLine=br.readLine();
-			strLine=br.readLine();
-				
-			training_accuracy = Double.parseDouble(strLine.split("rate=")[1]);
-			in.close();
-		}
-		catch(Exception e){
-			System.out.println("Failed getTrainingAccuracy()");
-			e.printStackTrace();
-			System.exit(-1);
+		// suffix sums of the alphas actually stored (they may have been rounded by the storage)
+		rest_pos=new double[total_sv+1];
+		rest_neg=new double[total_sv+1];
+		for (int i=total_sv-1;i>=0;i--) {
+			double c=svs.coef(i);
+			rest_pos[i]=rest_pos[i+1] + ((c > 0)? c : 0);
+			rest_neg[i]=rest_neg[i+1] + ((c < 0)? -c : 0);
 		}
+	}
 	
+	public void setExpFunction(ExpFunction expFunction1, double expMargin1) {
+		// evaluate the kernel with an approximate exp(); null goes back to Math.exp
+		// decision values whose sign the approximation error (or expMargin1) could flip are recomputed with Math.exp,
+		// so contains() always gives the same answer as with the exact kernel
+		expFunction = expFunction1;
+		expMargin = expMargin1;
 	}
 	
-	private void getModelParameters(){
-		// Create Android Log for each trainfile
-		AndroidLog modelLog = new AndroidLog(trainFile + ".model", true);
-		
-		try{
-			//System.out.println("get model from " + trainFile + ".model");
-			// CHANGED FOR ANDROID: FileInputStream fstream = new FileInputStream(trainFile + ".model");
-			FileInputStream fstream = modelLog.inputStream;
-			DataInputStream in = new DataInputStream(fstream);
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
-				
-			String strLine;
-				
-			strLine=br.readLine(); // skip 1st line
-			strLine=br.readLine(); // skip kernel_type line
-			
-			strLine=br.readLine();
-			gamma=Double.parseDouble(strLine.split(" ")[1]);
-				
-			strLine=br.readLine(); // nr_class line
-			int nr_class = Integer.parseInt(strLine.split(" ")[1]);
-			
-			
-			strLine=br.readLine(); // total_sv line
-			total_sv=Integer.parseInt(strLine.split(" ")[1]);
-			
-			if (total_sv > 0) {
-				sv_list=new double[total_sv][numAnchors+1];
-
-				strLine=br.readLine(); // read "rho" line
-				rho=Double.parseDouble(strLine.split(" ")[1]);	
-			
-				strLine=br.readLine(); // read "label" line
-				label = strLine.split(" ")[1];
-				
-				
-				strLine=br.readLine(); // read "nr_sv" line
-				strLine=br.readLine(); // read "SV" line
-			
-				for (int i=0;i<total_sv;i++){
-					strLine=br.readLine();
-					String[] vals=strLine.split(" ");
-					
-					// the first (nr_class-1) values are for coefficient "alpha" in SVM formula
-					// since were are interested in binary classification, only need to get the first value
-					sv_list[i][0]=Double.parseDouble(vals[0]); // "alpha" value in our SVM formula
-					
-					// read support vector
-					for (int j=nr_class-1;j<vals.length;j++) {
-						sv_list[i][Integer.parseInt(vals[j].split(":")[0])]=Double.parseDouble(vals[j].split(":")[1]);
-					}
-				}
-			}
-			else {
-				// there is zero support vector
-				strLine=br.readLine(); // read "rho" line
-				strLine=br.readLine(); // read "label" line
-				label = strLine.split(" ")[1];
-				// no need to read the rest
-			}
-			in.close();
-		}
-		catch(Exception e){
-			System.out.println("Failed getModelParameters() " + e.getMessage());
-			e.printStackTrace();
-			System.exit(-1);
-		}
+	FourierFeatures getFourierFeatures(int numFeatures, long seed) {
+		// the numFeatures random Fourier features (see FourierFeatures) drawn with seed for this model, to compute
+		// its weights for setFourierFeatures(); one more user of them in the pool until given back by
+		// setFourierFeatures() or SupportVectorPool.releaseFourierFeatures(). null for 0 features or no SVs
+		if (numFeatures == 0 || total_sv == 0) return null;
+		return pool.getFourierFeatures(range, gamma, numFeatures, seed);
 	}
 	
+	double[] fourierWeights(FourierFeatures f, ModelFile file) {
+		// the weights of this model on f; file is the model's own ModelFile, for its SVs in the original order.
+		// Only reads the model, so it can run outside the pool's lock while queries go on
+		return (f == null)? null : f.weights(file.sv_start, file.sv_index, file.sv_value, file.sv_coef);
+	}
 	
+	void release() {
+		// undo what the constructor and setFourierFeatures() registered in the pool, for a model that is dropped
+		// instead of used: one loaded twice by two threads at once, see ModelArray.load()
+		pool.releaseScaleRange(range);
+		if (svs != null) svs.release(pool);
+		if (fourier != null) pool.releaseFourierFeatures(fourier);
+		fourier = null;
+	}
 	
-	private double kernelFunction(double[] a, double[] b) {
-		// kernel function for SVM
-		// here, we use RBF
-		double r = Misc.euclideanDist(a, b);
-		return Math.exp((0-gamma) * r * r);
+	void setFourierFeatures(FourierFeatures f, double[] weight, double margin) {
+		// evaluate the model as a linear model on f (from getFourierFeatures()) with weight (from fourierWeights());
+		// null goes back to the kernel. Only swaps them in, the features in use until now are given back to the pool.
+		// Unlike setExpFunction(), the approximation error has no bound: decision values within margin of 0 are
+		// recomputed with the kernel, and the others may flip contains(), see TestingTask.compareFourier()
+		if (fourier != null) pool.releaseFourierFeatures(fourier);
+		fourier = f;
+		fourierWeight = weight;
+		fourierMargin = margin;
 	}
 	
-	private double decisionFunction(double[] a) {
+	private double decisionFunction(Query q) {
 		// NOTE: this decision function only applies to the case of binary classification, not for multi-classification 
 		// sign (negative/positive) of this decision function tells if a given vector a is in the class or not
+		// NOTE: the summation stops as soon as the sign is known, so only the sign of the returned value is exact
 		
 		if (total_sv == 0) {
 			// special case where there is no SV
@@ -193,89 +195,263 @@ public	class TrainingModel implements Serializable {
 			else return -1;
 		}
 		
-		double sum=0;
-		for (int i=0;i<total_sv;i++){
-			double[] b=new double[numAnchors];
-			for (int j=1;j<=numAnchors;j++){
-				b[j-1]=sv_list[i][j];
+		if (fourier != null) {
+			double ret=fourier.dot(fourierWeight, q)-rho;
+			if (ret > fourierMargin || ret < -fourierMargin) return labelSign * ret;
+			// too close to the boundary for the linear model
+		}
+		
+		// scale the sample once, then each SV only costs one kernel evaluation
+		SupportVectors.ScaledSample a1 = svs.scale(q);
+		
+		if (expFunction != null) {
+			double ret=kernelSum(a1, expFunction, null, expFunction.maxRelativeError(), expMargin);
+			if (ret != 0) return labelSign * ret;
+			// too close to the boundary for the approximation, fall through to the exact kernel
+		}
+		
+		// storages that can gather the dot products from the sample spread over a dense array, as kernelSums() does;
+		// with a vectorized DotProduct the kernel values are within err relative, and a sample too close to the
+		// boundary for that is summed again with the scalar merge
+		double[] dense = null;
+		if (svs.usesDense()) {
+			dense = q.dense(numAnchors);
+			double err = svs.denseError(dense, gamma);
+			if (err > 0) {
+				if (err <= MAX_DENSE_ERROR) {
+					double ret=kernelSum(a1, null, dense, err, 0);
+					if (ret != 0) return labelSign * ret;
+				}
+				dense = null;
 			}
-			sum+=sv_list[i][0] * kernelFunction(a, b);
 		}
-		return (new Double(label)) * (sum-rho);
+		return labelSign * kernelSum(a1, null, dense, 0, 0);
 	}
 	
-	public boolean contains(double[] newSample) {
-		// return if a new sample is in the class or not
+	private double kernelSum(SupportVectors.ScaledSample a, ExpFunction exp, double[] dense, double err, double margin) {
+		// return a value with the sign of (sum(alpha*k) - rho)
+		// with exp == null and err == 0 the kernel is exact, merged or gathered from dense (the same values);
+		// otherwise each kernel value k' (from exp, or from dense with a vectorized DotProduct) is within err*k of
+		// the exact k, so the partial sum is within err/(1-err) * sum(|alpha*k'|) of the exact one,
+		// and 0 is returned when that band (widened by margin) does not settle the sign.
+		// every kernel value is in (0,1] (at most 1+err when approximated), so once
+		// |sum - rho| exceeds what the remaining alphas could add or remove the sign is known and the loop stops
+		boolean approximate=(exp != null || err > 0);
+		double sum=0, weight=0;
+		double bound=1+err;
+		for (int i=0;i<total_sv;i++){
+			double f=sum-rho;
+			double band=(!approximate)? 0 : err/(1-err)*weight + margin;
+			if (f-band-rest_neg[i]*bound > 0) return f-band-rest_neg[i]*bound;
+			if (f+band+rest_pos[i]*bound < 0) return f+band+rest_pos[i]*bound;
+			
+			// kernel function for SVM; here, we use RBF
+			double k;
+			if (exp != null) k=exp.exp((0-gamma) * svs.sqDist(i, a));
+			else if (dense != null) k=svs.kernelFunction(i, a, dense, gamma);
+			else k=svs.kernelFunction(i, a, gamma);
+			double t=svs.coef(i) * k;
+			sum+=t;
+			weight+=Math.abs(t);
+		}
+		if (!approximate) return sum-rho;
 		
-		// need to scale vector newSample using the .range info
-		double [] newSample1 = new double[numAnchors];
-		for (int i=0; i < numAnchors; i++) {
-			double val = newSample[i];
-			if (attrRange[i][1]-attrRange[i][0] != 0)
-				newSample1[i] = ((val-attrRange[i][0])/(attrRange[i][1]-attrRange[i][0]))*(hi-lo)+lo;
-			else
-				newSample1[i] = 0; 
+		double band=err/(1-err)*weight + margin;
+		if (sum-rho > band || sum-rho < -band) return sum-rho;
+		return 0;
+	}
+	
+	public double[] decisionValues(SparseSample[] samples) {
+		// decision value of each sample (its sign tells if the sample is in the class), with the exact kernel;
+		// each value is the full sum, as decisionFunction() would give it without stopping early.
+		// With a vectorized DotProduct the kernel values are within MAX_DENSE_ERROR of the scalar ones, relative
+		Query[] q = Query.of(samples);
+		double[] ret = new double[samples.length];
+		kernelSums(q, ret, new double[samples.length], new double[samples.length], false);
+		for (int s=0; s < samples.length; s++)
+			ret[s] = (total_sv == 0)? decisionFunction(q[s]) : labelSign * (ret[s]-rho);
+		return ret;
+	}
+	
+	public boolean[] contains(SparseSample[] samples) {
+		// contains() of each sample; a sample leaves the batch as soon as its sign is known, as in kernelSum().
+		// With a vectorized DotProduct, the samples its error could flip are decided by contains() one at a time
+		return contains(Query.of(samples));
+	}
+	
+	boolean[] contains(Query[] q) {
+		// same as above, for queries whose cached values the models of a search share
+		double[] sum = new double[q.length];
+		double[] weight = new double[q.length];
+		double[] err = new double[q.length];
+		boolean[] ret = new boolean[q.length];
+		if (fourier != null || storage == STORAGE_POOLED) {
+			// a linear model has nothing to batch: its cost is the features of a sample, shared with other models;
+			// nor has a pooled one, whose values of a query (as large as its group) are shared with the others
+			for (int s=0; s < q.length; s++)
+				ret[s] = contains(q[s]);
+			return ret;
 		}
-		//Misc.printArray(newSample1);
-		if (decisionFunction(newSample1) > 0) return true;
-		return false;
+		kernelSums(q, sum, weight, err, true);
+		for (int s=0; s < q.length; s++) {
+			double f = sum[s]-rho;
+			double band = err[s]/(1-err[s])*weight[s];
+			if (total_sv == 0 || (err[s] > 0 && f <= band && f >= -band)) ret[s] = contains(q[s]);
+			else ret[s] = labelSign * f > 0;
+		}
+		return ret;
 	}
 	
-	private void scaleFile(String testFile, String testFileScaled) {
-		// scale test file (libsvm file format) based on the training model
-		
-		try {
-			DataInputStream in = new DataInputStream(new FileInputStream(testFile));
-			BufferedReader br = new BufferedReader(new InputStreamReader(in));
+	private void kernelSums(Query[] q, double[] sum, double[] weight, double[] err, boolean stopEarly) {
+		// sum[s] = sum(alpha*k) of the sample of q[s] and weight[s] = sum(|alpha*k|), computed by tiles of BATCH_TILE SVs:
+		// every sample of the batch goes through a tile while its SVs are in cache, instead of every sample streaming
+		// all the SVs.
+		// Storages that can (SupportVectors.usesDense()) get each sample spread over a dense array (Query.dense(),
+		// built once per query), so each SV costs a gather (see DotProduct) instead of a merge of two index lists.
+		// The terms of each sample are added in SV order, so with the scalar DotProduct the sums are those of
+		// kernelSum() with the exact kernel; a vectorized one makes the kernel values approximate, within err[s]
+		// relative (SupportVectors.denseError(), from gamma and the magnitudes of the SVs and the sample), and the
+		// sign tests allow for it as kernelSum() does for an ExpFunction. A sample whose err[s] would exceed
+		// MAX_DENSE_ERROR goes through the exact kernel instead, with err[s] = 0.
+		// With stopEarly, a sample leaves the batch as soon as the remaining alphas cannot change its sign, at the
+		// same SV as in kernelSum(); sum[s] then has that sign only.
+		// STORAGE_POOLED keeps the values of a query as large as its group, so its batch is one tile: each sample
+		// goes through all the SVs before the next one
+		if (total_sv == 0) return;
+		int tile = (storage == STORAGE_POOLED)? total_sv : BATCH_TILE;
+		SupportVectors.ScaledSample[] a = new SupportVectors.ScaledSample[q.length];
+		double[][] dense = new double[q.length][];
+		int[] active = new int[q.length];
+		int numActive = q.length;
+		for (int s=0; s < numActive; s++) active[s] = s;
 		
-			DataOutputStream output = new DataOutputStream(new FileOutputStream(testFileScaled));
-			String strLine;
-			
-			while ((strLine = br.readLine()) != null)   {
-				String[] str = strLine.trim().split(" ");
-				output.writeBytes(str[0]); // write label
-				
-				for (int i=0; i < numAnchors; i++) {
-					double val = new Double(str[i+1].split(":")[1]);
-					if (attrRange[i][1]-attrRange[i][0] != 0) {
-						val = ((val-attrRange[i][0])/(attrRange[i][1]-attrRange[i][0]))*(hi-lo)+lo;
-						output.writeBytes(" " + (i+1) + ":" + val);
+		for (int i0=0; i0 < total_sv && numActive > 0; i0+=tile) {
+			int i1 = Math.min(i0+tile, total_sv);
+			int n = 0;
+			for (int k=0; k < numActive; k++) {
+				int s = active[k];
+				if (a[s] == null) {
+					a[s] = svs.scale(q[s]);
+					if (svs.usesDense()) {
+						dense[s] = q[s].dense(numAnchors);
+						err[s] = svs.denseError(dense[s], gamma);
+						if (!(err[s] <= MAX_DENSE_ERROR)) {
+							dense[s] = null;
+							err[s] = 0;
+						}
 					}
-					else {
-						// in this case, the respective feature plays no role in the prediction
-						// its value will be zero, hence ignored in the libsvm input format
+				}
+				double t = sum[s], w = weight[s];
+				double bound = 1+err[s];
+				int i = i0;
+				for (; i < i1; i++) {
+					if (stopEarly) {
+						double f = t-rho;
+						double band = err[s]/(1-err[s])*w;
+						if (f-band-rest_neg[i]*bound > 0 || f+band+rest_pos[i]*bound < 0) break;
 					}
+					double kv = (dense[s] == null)? svs.kernelFunction(i, a[s], gamma) : svs.kernelFunction(i, a[s], dense[s], gamma);
+					double term = svs.coef(i) * kv;
+					t += term;
+					w += Math.abs(term);
 				}
-				output.writeBytes("\n");			
+				sum[s] = t;
+				weight[s] = w;
+				if (i == i1) active[n++] = s;
 			}
-			in.close();
-			output.close();
+			numActive = n;
 		}
-		catch(Exception e){
-			System.out.println("Failed scaleFile()");
-			System.exit(-1);
+	}
+	
+	public MemoryUsage memoryUsage() {
+		// bytes this model retains, with its share of what it shares with the other models of its pool
+		MemoryUsage ret = new MemoryUsage();
+		memoryUsage(ret, true);
+		return ret;
+	}
+	
+	void memoryUsage(MemoryUsage u, boolean shares) {
+		// add this model to u; without shares, the ScaleRange and pool groups are left for the pool to count once
+		u.numModels++;
+		u.other += MemoryUsage.object(4*3 + 8*8 + 12*MemoryUsage.REFERENCE) + MemoryUsage.of(rest_pos) + MemoryUsage.of(rest_neg) +
+				MemoryUsage.of(label) + MemoryUsage.of(trainFile) + MemoryUsage.of(fourierWeight);
+		if (svs != null) svs.memoryUsage(u, shares);
+		if (shares) u.scaleTables += MemoryUsage.share(range.memoryBytes(), 1, range.numUsers);
+		if (shares && fourier != null) u.scaleTables += fourier.memoryShare();
+	}
+	
+	public boolean contains(double[] newSample) {
+		// return if a new sample is in the class or not
+		return contains(new SparseSample(newSample));
+	}
+	
+	public boolean contains(SparseSample newSample) {
+		// return if a new sample (given by its heard APs only) is in the class or not
+		return contains(new Query(newSample));
+	}
+	
+	boolean contains(Query q) {
+		// same as above, for a query whose cached values the models of a search share
+		if (decisionFunction(q) > 0) return true;
+		return false;
+	}
+	
+	public int predictLabel(SparseSample a) throws IOException {
+		// label of a raw sample (as in the test files) with this model as a multi-class model, see MultiClassModel
+		return multiClass().predictLabel(a);
+	}
+	
+	public int[] predictLabels(SparseSample[] samples) throws IOException {
+		// predictLabel() of each sample, evaluated as one batch
+		return multiClass().predictLabels(samples);
+	}
+	
+	private synchronized MultiClassModel multiClass() throws IOException {
+		// the whole one-vs-one model is only read the first time a label is asked for
+		if (multiClass == null) multiClass = MultiClassModel.load(trainFile, numAnchors);
+		return multiClass;
+	}
+	
+	static SparseSample readSample(TextScanner in, int numAnchors) {
+		// the sample on the current line of a libsvm file ("label idx:val ..."), its label skipped
+		in.skipToken();
+		int[] index = new int[numAnchors];
+		double[] value = new double[numAnchors];
+		int n = 0;
+		while (in.hasNext()) {
+			if (n == numAnchors) throw new NumberFormatException("more than " + numAnchors + " attributes");
+			index[n] = in.nextInt()-1; // feature indices in the file start at 1
+			if (!in.skip(':')) throw new NumberFormatException("missing ':'");
+			value[n++] = in.nextDouble();
 		}
-			
+		return new SparseSample(index, value, n);
 	}
 	
 	public void predictFile(String testFile, String predictFile) {
-		// first we use ./svm-scale to scale test file according to model
-		// then we use ./svm-predict to predict scaled test file
-		
-		scaleFile(testFile, testFile + ".scale");
-		// now, predict		
+		// label each sample of a test file (libsvm file format) with this model as a multi-class model;
+		// the samples are scaled in memory on their way to the model, BATCH_SAMPLES at a time
 		try {
-			String cmd = "./svm-predict " + testFile + ".scale" + " " + trainFile + ".model "  + predictFile; 
-			//System.out.println(cmd);
-			Process pr = Runtime.getRuntime().exec(cmd);
-			pr.waitFor();
+			TextScanner in = TextScanner.open(testFile);
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(predictFile)));
 			
-			
-			// delete the scaled file to avoid mess
-			new File(testFile + ".scale").delete();	
+			SparseSample[] batch = new SparseSample[BATCH_SAMPLES];
+			int n = 0;
+			boolean more = true;
+			while (more) {
+				more = in.nextLine();
+				if (more && in.hasNext()) batch[n++] = readSample(in, numAnchors);
+				if (n == batch.length || (!more && n > 0)) {
+					int[] labels = predictLabels((n == batch.length)? batch : Arrays.copyOf(batch, n));
+					for (int s=0; s < n; s++)
+						output.writeBytes(labels[s] + "\n");
+					n = 0;
+				}
+			}
+			in.close();
+			output.close();
 		}
 		catch(Exception e){
-			System.out.println("Failed scaleFile()");
+			System.out.println("Failed predictFile() " + e.getMessage());
 			System.exit(-1);
 		}
 	}
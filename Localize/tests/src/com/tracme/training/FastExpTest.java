@@ -0,0 +1,51 @@
+package com.tracme.training;
+
+// FastExp stays within its maxRelativeError() of Math.exp() for the kernel's arguments
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class FastExpTest extends TestCase {
+	private static void assertWithinBound(FastExp f, double x) {
+		double expected = Math.exp(x);
+		double error = Math.abs(f.exp(x) - expected) / expected;
+		assertTrue("x=" + x + " relative error " + error, error <= f.maxRelativeError());
+	}
+	
+	public void testErrorBound() {
+		FastExp f = new FastExp();
+		assertEquals(1e-9, f.maxRelativeError(), 0);
+		// a fine grid near 0, where the kernel values that count are, and random points over the whole range
+		for (int k = 0; k <= 1000000; k++)
+			assertWithinBound(f, -k * 1e-5);
+		Random r = new Random(8);
+		for (int n = 0; n < 1000000; n++)
+			assertWithinBound(f, -700 * r.nextDouble());
+		for (int n = 0; n < 100000; n++)
+			assertWithinBound(f, 700 * r.nextDouble());
+	}
+	
+	public void testTableBoundaries() {
+		// the points where x*log2(e)*64 crosses a whole number: the table index and the exponent change
+		FastExp f = new FastExp();
+		for (int n = -64*1009; n <= 64*1009; n++) {
+			double x = n / 64.0 / 1.4426950408889634;
+			if (x < -700 || x > 700) continue;
+			assertWithinBound(f, x);
+			assertWithinBound(f, Math.nextUp(x));
+			assertWithinBound(f, Math.nextAfter(x, Double.NEGATIVE_INFINITY));
+		}
+	}
+	
+	public void testExact() {
+		FastExp f = new FastExp();
+		assertEquals(1, f.exp(0), 0);
+		assertEquals(0, f.exp(-700.5), 0);
+		assertEquals(0, f.exp(-1e6), 0);
+		assertEquals(0, f.exp(Double.NEGATIVE_INFINITY), 0);
+		assertEquals(Math.exp(701), f.exp(701), 0);
+		// ExpFunction itself is Math.exp()
+		assertEquals(Math.exp(-3.5), new ExpFunction().exp(-3.5), 0);
+		assertEquals(0, new ExpFunction().maxRelativeError(), 0);
+	}
+}
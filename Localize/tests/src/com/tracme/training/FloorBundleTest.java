@@ -0,0 +1,100 @@
+package com.tracme.training;
+
+// FloorBundle: all the stripe models of a floor in one file, and its check against retrained models
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class FloorBundleTest extends TestCase {
+	private static final int NUM_ANCHORS = 10;
+	
+	private TestFiles files;
+	private String[] trainFilesX = new String[3];
+	private String[] trainFilesY = new String[2];
+	private ModelFile[] modelsX = new ModelFile[3];
+	private ModelFile[] modelsY = new ModelFile[2];
+	
+	protected void setUp() throws IOException {
+		files = new TestFiles("FloorBundleTest");
+		files.file("X3").mkdirs();
+		files.file("Y2").mkdirs();
+		Random r = new Random(2);
+		double[][] range = TestFiles.range(r, NUM_ANCHORS);
+		for (int i = 0; i < 3; i++) {
+			trainFilesX[i] = files.writeModel("X3/" + (i+1) + ".txt", r, range, 10 + i, 0.1);
+			modelsX[i] = ModelFile.readText(trainFilesX[i], NUM_ANCHORS);
+		}
+		for (int i = 0; i < 2; i++) {
+			trainFilesY[i] = files.writeModel("Y2/" + (i+1) + ".txt", r, range, 15 + i, 0.2);
+			modelsY[i] = ModelFile.readText(trainFilesY[i], NUM_ANCHORS);
+		}
+	}
+	
+	protected void tearDown() {
+		files.delete();
+	}
+	
+	public void testRoundTrip() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FloorBundle.write(out, NUM_ANCHORS, modelsX, modelsY, new long[FloorBundle.STAMP_LENGTH]);
+		out.write(new byte[] {1, 2, 3}); // what follows the bundle, as in a snapshot
+		ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+		FloorBundle bundle = FloorBundle.read(buf, NUM_ANCHORS, 3, 2);
+		assertNotNull(bundle);
+		assertEquals(out.size() - 3, bundle.size());
+		assertEquals(bundle.size(), buf.position());
+		assertEquals(5, bundle.numModels());
+		for (int i = 0; i < 3; i++)
+			ModelFileTest.assertSameModel(modelsX[i], bundle.modelX(i));
+		for (int i = 0; i < 2; i++)
+			ModelFileTest.assertSameModel(modelsY[i], bundle.modelY(i));
+	}
+	
+	public void testOtherFloor() throws IOException {
+		// a bundle of other numbers of anchors or classes is not read
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FloorBundle.write(out, NUM_ANCHORS, modelsX, modelsY, new long[FloorBundle.STAMP_LENGTH]);
+		assertNull(FloorBundle.read(ByteBuffer.wrap(out.toByteArray()), NUM_ANCHORS+1, 3, 2));
+		assertNull(FloorBundle.read(ByteBuffer.wrap(out.toByteArray()), NUM_ANCHORS, 2, 3));
+	}
+	
+	public void testOpen() throws IOException {
+		String name = files.path("X3_Y2.bundle");
+		assertNull(FloorBundle.open(name, NUM_ANCHORS, trainFilesX, trainFilesY));
+		FloorBundle.write(name, NUM_ANCHORS, modelsX, modelsY, FloorBundle.stamp(trainFilesX, trainFilesY));
+		FloorBundle bundle = FloorBundle.open(name, NUM_ANCHORS, trainFilesX, trainFilesY);
+		assertNotNull(bundle);
+		ModelFileTest.assertSameModel(modelsY[1], bundle.modelY(1));
+	}
+	
+	public void testRetrainedModels() throws IOException {
+		// writing models in the directory of a dimension makes the bundle stale
+		String name = files.path("X3_Y2.bundle");
+		FloorBundle.write(name, NUM_ANCHORS, modelsX, modelsY, FloorBundle.stamp(trainFilesX, trainFilesY));
+		File dir = files.file("Y2");
+		assertTrue(dir.setLastModified(dir.lastModified() + 2000));
+		assertNull(FloorBundle.open(name, NUM_ANCHORS, trainFilesX, trainFilesY));
+	}
+	
+	public void testCutShort() throws IOException {
+		// a bundle cut short is an exception of read(), and rejected by open()
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		FloorBundle.write(out, NUM_ANCHORS, modelsX, modelsY, FloorBundle.stamp(trainFilesX, trainFilesY));
+		byte[] bytes = out.toByteArray();
+		try {
+			FloorBundle.read(ByteBuffer.wrap(bytes, 0, bytes.length/2), NUM_ANCHORS, 3, 2);
+			fail("no exception");
+		}
+		catch (RuntimeException e) {
+			// BufferUnderflowException
+		}
+		
+		File file = files.file("X3_Y2.bundle");
+		OutputStream f = new FileOutputStream(file);
+		f.write(bytes, 0, bytes.length/2);
+		f.close();
+		assertNull(FloorBundle.open(files.path("X3_Y2.bundle"), NUM_ANCHORS, trainFilesX, trainFilesY));
+	}
+}
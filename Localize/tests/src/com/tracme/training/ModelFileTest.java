@@ -0,0 +1,97 @@
+package com.tracme.training;
+
+// ModelFile: the text files of a model, and the compiled record of the ModelCache and of the floor bundles
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class ModelFileTest extends TestCase {
+	private static final int NUM_ANCHORS = 12;
+	
+	private TestFiles files;
+	private double[][] range;
+	private String trainFile;
+	
+	protected void setUp() throws IOException {
+		files = new TestFiles("ModelFileTest");
+		Random r = new Random(1);
+		range = TestFiles.range(r, NUM_ANCHORS);
+		trainFile = files.writeModel("m.txt", r, range, 25, 0.1);
+	}
+	
+	protected void tearDown() {
+		files.delete();
+	}
+	
+	static void assertSameModel(ModelFile a, ModelFile b) {
+		assertEquals(a.numAnchors, b.numAnchors);
+		assertEquals(a.lo, b.lo, 0);
+		assertEquals(a.hi, b.hi, 0);
+		for (int j = 0; j < a.numAnchors; j++)
+			assertTrue(Arrays.equals(a.attrRange[j], b.attrRange[j]));
+		assertEquals(a.training_accuracy, b.training_accuracy, 0);
+		assertEquals(a.gamma, b.gamma, 0);
+		assertEquals(a.rho, b.rho, 0);
+		assertEquals(a.label, b.label);
+		assertEquals(a.total_sv, b.total_sv);
+		assertTrue(Arrays.equals(a.sv_coef, b.sv_coef));
+		assertTrue(Arrays.equals(a.sv_start, b.sv_start));
+		assertTrue(Arrays.equals(a.sv_index, b.sv_index));
+		assertTrue(Arrays.equals(a.sv_value, b.sv_value));
+	}
+	
+	public void testReadText() throws IOException {
+		ModelFile m = ModelFile.readText(trainFile, NUM_ANCHORS);
+		assertEquals(NUM_ANCHORS, m.numAnchors);
+		assertEquals(-1, m.lo, 0);
+		assertEquals(1, m.hi, 0);
+		for (int j = 0; j < NUM_ANCHORS; j++)
+			assertTrue(Arrays.equals(range[j], m.attrRange[j]));
+		assertEquals(0.875, m.training_accuracy, 0);
+		assertEquals(0.1, m.gamma, 0);
+		assertEquals("1", m.label);
+		assertEquals(25, m.total_sv);
+		assertEquals(m.sv_index.length, m.sv_start[m.total_sv]);
+		for (int i = 0; i < m.total_sv; i++) {
+			// 13 SVs of label 1 first, then 12 of label -1; indices increasing from 0
+			assertTrue((i < 13)? m.sv_coef[i] > 0 : m.sv_coef[i] < 0);
+			for (int k = m.sv_start[i]+1; k < m.sv_start[i+1]; k++)
+				assertTrue(m.sv_index[k-1] < m.sv_index[k]);
+		}
+	}
+	
+	public void testRecordRoundTrip() throws IOException {
+		ModelFile m = ModelFile.readText(trainFile, NUM_ANCHORS);
+		ModelFile back = ModelFile.read(ByteBuffer.wrap(m.toBytes()), NUM_ANCHORS);
+		assertNotNull(back);
+		assertSameModel(m, back);
+	}
+	
+	public void testRecordOfOtherAnchors() throws IOException {
+		// a record compiled for another number of anchors is not read
+		byte[] record = ModelFile.readText(trainFile, NUM_ANCHORS).toBytes();
+		assertNull(ModelFile.read(ByteBuffer.wrap(record), NUM_ANCHORS+1));
+		record[0] ^= 1;
+		assertNull(ModelFile.read(ByteBuffer.wrap(record), NUM_ANCHORS));
+	}
+	
+	public void testLoadFromCache() throws IOException {
+		// the first load compiles the text files into the cache, the second reads the entry
+		ModelFile text = ModelFile.readText(trainFile, NUM_ANCHORS);
+		assertSameModel(text, ModelFile.load(trainFile, NUM_ANCHORS));
+		assertSameModel(text, ModelFile.load(trainFile, NUM_ANCHORS));
+	}
+	
+	public void testMissingFile() {
+		try {
+			ModelFile.readText(files.path("missing.txt"), NUM_ANCHORS);
+			fail("no IOException");
+		}
+		catch (IOException e) {
+			assertTrue(e.getMessage().indexOf("missing.txt") >= 0);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.tracme.training;
+
+// MultiClassModel predicts the labels svm-predict would: checked against a plain transcription of libsvm's
+// svm_predict_values() (dense RBF kernel, one-vs-one votes, ties to the first class) run on the text files
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class MultiClassModelTest extends TestCase {
+	private static final int NUM_ANCHORS = 15;
+	
+	private TestFiles files;
+	private double[][] range;
+	
+	protected void setUp() {
+		files = new TestFiles("MultiClassModelTest");
+		range = TestFiles.range(new Random(9), NUM_ANCHORS);
+	}
+	
+	protected void tearDown() {
+		files.delete();
+	}
+	
+	// libsvm's model and prediction, read with split() and computed over dense arrays
+	private static class Reference {
+		double gamma;
+		int nr_class;
+		double[] rho;
+		int[] label;
+		int[] nr_sv;
+		double[][] sv_coef; // [nr_class-1][total_sv]
+		double[][] SV; // scaled, dense
+		double lo, hi;
+		double[][] attrRange;
+		
+		Reference(File model, File rangeFile, int numAnchors) throws IOException {
+			BufferedReader in = new BufferedReader(new FileReader(rangeFile));
+			in.readLine();
+			String[] t = in.readLine().trim().split(" ");
+			lo = Double.parseDouble(t[0]);
+			hi = Double.parseDouble(t[1]);
+			attrRange = new double[numAnchors][2];
+			String line;
+			while ((line = in.readLine()) != null) {
+				t = line.trim().split(" ");
+				int j = Integer.parseInt(t[0]) - 1;
+				attrRange[j][0] = Double.parseDouble(t[1]);
+				attrRange[j][1] = Double.parseDouble(t[2]);
+			}
+			in.close();
+			
+			in = new BufferedReader(new FileReader(model));
+			ArrayList<String> svLines = new ArrayList<String>();
+			boolean sv = false;
+			while ((line = in.readLine()) != null) {
+				t = line.trim().split(" ");
+				if (sv) svLines.add(line);
+				else if (t[0].equals("gamma")) gamma = Double.parseDouble(t[1]);
+				else if (t[0].equals("nr_class")) nr_class = Integer.parseInt(t[1]);
+				else if (t[0].equals("rho")) rho = doubles(t);
+				else if (t[0].equals("label")) label = ints(t);
+				else if (t[0].equals("nr_sv")) nr_sv = ints(t);
+				else if (t[0].equals("SV")) sv = true;
+			}
+			in.close();
+			
+			int l = svLines.size();
+			sv_coef = new double[nr_class-1][l];
+			SV = new double[l][numAnchors];
+			for (int i = 0; i < l; i++) {
+				t = svLines.get(i).trim().split(" ");
+				for (int c = 0; c < nr_class-1; c++)
+					sv_coef[c][i] = Double.parseDouble(t[c]);
+				for (int k = nr_class-1; k < t.length; k++) {
+					String[] pair = t[k].split(":");
+					SV[i][Integer.parseInt(pair[0]) - 1] = Double.parseDouble(pair[1]);
+				}
+			}
+		}
+		
+		private static double[] doubles(String[] t) {
+			double[] ret = new double[t.length-1];
+			for (int k = 1; k < t.length; k++)
+				ret[k-1] = Double.parseDouble(t[k]);
+			return ret;
+		}
+		
+		private static int[] ints(String[] t) {
+			int[] ret = new int[t.length-1];
+			for (int k = 1; k < t.length; k++)
+				ret[k-1] = Integer.parseInt(t[k]);
+			return ret;
+		}
+		
+		double[] scale(double[] raw) {
+			// svm-scale of the heard APs; the others, absent from a sparse sample, are 0 like in the .scale files
+			double[] ret = new double[raw.length];
+			for (int j = 0; j < raw.length; j++) {
+				if (raw[j] == 0 || attrRange[j][0] == attrRange[j][1]) continue;
+				if (raw[j] == attrRange[j][0]) ret[j] = lo;
+				else if (raw[j] == attrRange[j][1]) ret[j] = hi;
+				else ret[j] = lo + (hi-lo)*(raw[j]-attrRange[j][0])/(attrRange[j][1]-attrRange[j][0]);
+			}
+			return ret;
+		}
+		
+		int predict(double[] x) {
+			int l = SV.length;
+			double[] kvalue = new double[l];
+			for (int i = 0; i < l; i++) {
+				double sum = 0;
+				for (int j = 0; j < x.length; j++)
+					sum += (x[j]-SV[i][j])*(x[j]-SV[i][j]);
+				kvalue[i] = Math.exp(-gamma*sum);
+			}
+			int[] start = new int[nr_class];
+			for (int i = 1; i < nr_class; i++)
+				start[i] = start[i-1] + nr_sv[i-1];
+			int[] vote = new int[nr_class];
+			int p = 0;
+			for (int i = 0; i < nr_class; i++) {
+				for (int j = i+1; j < nr_class; j++) {
+					double sum = 0;
+					for (int k = 0; k < nr_sv[i]; k++)
+						sum += sv_coef[j-1][start[i]+k] * kvalue[start[i]+k];
+					for (int k = 0; k < nr_sv[j]; k++)
+						sum += sv_coef[i][start[j]+k] * kvalue[start[j]+k];
+					sum -= rho[p++];
+					if (sum > 0) ++vote[i];
+					else ++vote[j];
+				}
+			}
+			int vote_max_idx = 0;
+			for (int i = 1; i < nr_class; i++)
+				if (vote[i] > vote[vote_max_idx]) vote_max_idx = i;
+			return label[vote_max_idx];
+		}
+	}
+	
+	private void checkModel(String name, int[] labels, int[] nr_sv, long seed) throws IOException {
+		Random r = new Random(seed);
+		String trainFile = files.writeModel(name, r, range, labels, nr_sv, 0.05 + 0.3*r.nextDouble());
+		Reference ref = new Reference(files.file(name + ".model"), files.file(name + ".range"), NUM_ANCHORS);
+		MultiClassModel model = MultiClassModel.load(trainFile, NUM_ANCHORS);
+		
+		double[][] raw = new double[2000][];
+		SparseSample[] samples = new SparseSample[raw.length];
+		for (int s = 0; s < raw.length; s++) {
+			raw[s] = TestFiles.sample(r, range);
+			samples[s] = new SparseSample(raw[s]);
+		}
+		int[] batch = model.predictLabels(samples);
+		int[] seen = new int[labels.length];
+		for (int s = 0; s < raw.length; s++) {
+			int expected = ref.predict(ref.scale(raw[s]));
+			assertEquals("sample " + s, expected, batch[s]);
+			assertEquals("sample " + s, expected, model.predictLabel(samples[s]));
+			for (int c = 0; c < labels.length; c++)
+				if (labels[c] == expected) seen[c]++;
+		}
+		// the samples are not all given one label, or the test would prove little
+		int classesSeen = 0;
+		for (int c = 0; c < labels.length; c++)
+			if (seen[c] > 0) classesSeen++;
+		assertTrue(classesSeen >= Math.min(2, labels.length));
+	}
+	
+	public void testBinary() throws IOException {
+		checkModel("binary.txt", new int[] {1, -1}, new int[] {12, 9}, 21);
+	}
+	
+	public void testThreeClasses() throws IOException {
+		checkModel("three.txt", new int[] {2, 1, 3}, new int[] {6, 10, 7}, 11);
+	}
+	
+	public void testFiveClasses() throws IOException {
+		// a grid model's labels are cell numbers, listed in the order of the training file
+		checkModel("five.txt", new int[] {4, 17, 1, 9, 12}, new int[] {5, 8, 1, 11, 6}, 12);
+	}
+	
+	public void testSingleClass() throws IOException {
+		// a stripe with one class in its training data: every sample gets its label
+		Random r = new Random(13);
+		String trainFile = files.writeModel("single.txt", r, range, new int[] {7}, new int[] {0}, 0.1);
+		MultiClassModel model = MultiClassModel.load(trainFile, NUM_ANCHORS);
+		int[] labels = model.predictLabels(TestFiles.samples(r, range, 50));
+		for (int s = 0; s < labels.length; s++)
+			assertEquals(7, labels[s]);
+	}
+}
@@ -0,0 +1,108 @@
+package com.tracme.training;
+
+// STORAGE_INT8: which models fit a byte, how close their decision values are to the double ones, and what happens
+// to the others
+
+import java.io.IOException;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class QuantizedSupportVectorsTest extends TestCase {
+	private static final int NUM_ANCHORS = 20;
+	
+	private TestFiles files;
+	private double[][] range;
+	private String trainFile;
+	
+	protected void setUp() throws IOException {
+		files = new TestFiles("QuantizedSupportVectorsTest");
+		Random r = new Random(14);
+		range = TestFiles.range(r, NUM_ANCHORS);
+		trainFile = files.writeModel("m.txt", r, range, 60, 0.2);
+	}
+	
+	protected void tearDown() {
+		files.delete();
+	}
+	
+	private static double[][] dBm(double[][] range) {
+		// the same ranges in dBm, as a model trained on result.level would have them
+		double[][] ret = new double[range.length][2];
+		for (int j = 0; j < range.length; j++) {
+			ret[j][0] = range[j][0] - 100;
+			ret[j][1] = range[j][1] - 100;
+		}
+		return ret;
+	}
+	
+	public void testFits() {
+		assertTrue(QuantizedSupportVectors.fits(range, -1, 1));
+		assertTrue(QuantizedSupportVectors.fits(range, 0, 1));
+		assertFalse(QuantizedSupportVectors.fits(dBm(range), -1, 1));
+		
+		double[][] wide = {{0, 255}, {3, 3}, {300, 300}};
+		assertTrue(QuantizedSupportVectors.fits(wide, -1, 1));
+		wide[0][1] = 256;
+		assertFalse(QuantizedSupportVectors.fits(wide, -1, 1));
+		// a scaled 0 below the range: [0.5, 1] maps raw 10 .. 20 and 0 to raw 0
+		assertTrue(QuantizedSupportVectors.fits(new double[][] {{10, 20}}, 0.5, 1));
+		assertFalse(QuantizedSupportVectors.fits(new double[][] {{10, 20}}, 0.6, 1));
+	}
+	
+	public void testDecisionValues() throws IOException {
+		// with whole raw values, the only difference from the double path is the rounding of the weights
+		TrainingModel exact = new TrainingModel(trainFile, NUM_ANCHORS, TrainingModel.STORAGE_DOUBLE);
+		TrainingModel int8 = new TrainingModel(trainFile, NUM_ANCHORS, TrainingModel.STORAGE_INT8);
+		SparseSample[] samples = TestFiles.samples(new Random(15), range, 3000);
+		double[] expected = exact.decisionValues(samples);
+		double[] actual = int8.decisionValues(samples);
+		for (int s = 0; s < samples.length; s++)
+			assertEquals(expected[s], actual[s], 1e-6 * (1 + Math.abs(expected[s])));
+	}
+	
+	public void testQueryOutsideByte() throws IOException {
+		TrainingModel int8 = new TrainingModel(trainFile, NUM_ANCHORS, TrainingModel.STORAGE_INT8);
+		double[] sample = new double[NUM_ANCHORS];
+		sample[0] = -49;
+		try {
+			int8.contains(sample);
+			fail("no IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		sample[0] = 256;
+		try {
+			int8.contains(sample);
+			fail("no IllegalArgumentException");
+		}
+		catch (IllegalArgumentException e) {
+			// expected
+		}
+		sample[0] = 255;
+		int8.contains(sample);
+	}
+	
+	public void testModelOutsideByte() throws IOException {
+		// a model trained on dBm levels keeps floats: same values as STORAGE_FLOAT, negative queries included
+		Random r = new Random(16);
+		double[][] levels = dBm(range);
+		String dBmFile = files.writeModel("dBm.txt", r, levels, 60, 0.2);
+		TrainingModel float32 = new TrainingModel(dBmFile, NUM_ANCHORS, TrainingModel.STORAGE_FLOAT);
+		TrainingModel int8 = new TrainingModel(dBmFile, NUM_ANCHORS, TrainingModel.STORAGE_INT8);
+		SparseSample[] samples = new SparseSample[1000];
+		for (int s = 0; s < samples.length; s++) {
+			double[] sample = TestFiles.sample(r, range);
+			for (int j = 0; j < NUM_ANCHORS; j++)
+				if (sample[j] != 0) sample[j] -= 100;
+			samples[s] = new SparseSample(sample);
+		}
+		double[] expected = float32.decisionValues(samples);
+		double[] actual = int8.decisionValues(samples);
+		for (int s = 0; s < samples.length; s++) {
+			assertEquals(expected[s], actual[s], 0);
+			assertEquals(float32.contains(samples[s]), int8.contains(samples[s]));
+		}
+		assertEquals(float32.memoryUsage().supportVectors, int8.memoryUsage().supportVectors);
+	}
+}
@@ -0,0 +1,138 @@
+package com.tracme.training;
+
+// TestingTask.writeSnapshot() and readSnapshot(): a task and its models in one checked file
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class SnapshotTest extends TestCase {
+	private static final int NUM_ANCHORS = 12;
+	
+	private TestFiles files;
+	private double[][] range;
+	private TestingTask task;
+	
+	protected void setUp() throws IOException {
+		files = new TestFiles("SnapshotTest");
+		Random r = new Random(3);
+		range = TestFiles.range(r, NUM_ANCHORS);
+		task = new TestingTask(files.writeFloor(r, range, 4, 4, 40, 30), "train.txt");
+	}
+	
+	protected void tearDown() {
+		files.delete();
+	}
+	
+	private File write(TestingTask t) throws IOException {
+		File file = files.file("task.snapshot");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			t.writeSnapshot(out);
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+	
+	private void assertSameEstimates(TestingTask a, TestingTask b) {
+		Random r = new Random(4);
+		for (int s = 0; s < 300; s++) {
+			double[] sample = TestFiles.sample(r, range);
+			assertTrue(Arrays.equals(a.getEstLocation(sample), b.getEstLocation(sample)));
+		}
+	}
+	
+	private static void rewrite(File file, byte[] bytes, int length) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		out.write(bytes, 0, length);
+		out.close();
+	}
+	
+	private static byte[] readAll(File file) throws IOException {
+		byte[] ret = new byte[(int) file.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		in.readFully(ret);
+		in.close();
+		return ret;
+	}
+	
+	public void testRoundTrip() throws IOException {
+		task.setNumClasses(4, 4, null);
+		TestingTask back = TestingTask.readSnapshot(write(task));
+		assertEquals(task.maxX, back.maxX);
+		assertEquals(task.maxY, back.maxY);
+		assertEquals(NUM_ANCHORS, back.numAnchors);
+		assertSameEstimates(task, back);
+	}
+	
+	public void testRoundTripWithoutModels() throws IOException {
+		TestingTask back = TestingTask.readSnapshot(write(task));
+		assertEquals(task.maxX, back.maxX);
+		assertEquals(NUM_ANCHORS, back.numAnchors);
+	}
+	
+	public void testFastExp() throws IOException {
+		// the ExpFunction is written by its id, and estimates with FastExp stay those of the task
+		task.setExpFunction(new FastExp(), 1e-6);
+		task.setStorage(TrainingModel.STORAGE_FLOAT);
+		task.setNumClasses(4, 4, null);
+		assertSameEstimates(task, TestingTask.readSnapshot(write(task)));
+	}
+	
+	public void testOtherExpFunction() throws IOException {
+		// an ExpFunction the snapshot has no id for is not written
+		task.setExpFunction(new ExpFunction() {
+			public double exp(double x) {
+				return Math.exp(x);
+			}
+		}, 0);
+		try {
+			task.writeSnapshot(new ByteArrayOutputStream());
+			fail("no IOException");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+	
+	public void testChecksum() throws IOException {
+		task.setNumClasses(4, 4, null);
+		File file = write(task);
+		byte[] bytes = readAll(file);
+		Random r = new Random(5);
+		for (int k = 0; k < 10; k++) {
+			// a flipped bit anywhere, checksum included
+			int p = r.nextInt(bytes.length);
+			bytes[p] ^= 1 << r.nextInt(8);
+			rewrite(file, bytes, bytes.length);
+			try {
+				TestingTask.readSnapshot(file);
+				fail("no IOException for byte " + p);
+			}
+			catch (IOException e) {
+				assertTrue(e.getMessage().indexOf("bad checksum") >= 0);
+			}
+			bytes[p] = readAll(write(task))[p];
+		}
+	}
+	
+	public void testCutShort() throws IOException {
+		task.setNumClasses(4, 4, null);
+		File file = write(task);
+		byte[] bytes = readAll(file);
+		int[] lengths = {0, 4, 20, bytes.length/2, bytes.length-1};
+		for (int k = 0; k < lengths.length; k++) {
+			rewrite(file, bytes, lengths[k]);
+			try {
+				TestingTask.readSnapshot(file);
+				fail("no IOException for " + lengths[k] + " bytes");
+			}
+			catch (IOException e) {
+				// expected
+			}
+		}
+	}
+}
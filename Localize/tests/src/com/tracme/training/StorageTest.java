@@ -0,0 +1,99 @@
+package com.tracme.training;
+
+// every STORAGE_* mode against STORAGE_DOUBLE: the full-precision ones decide every sample alike, the rounded ones
+// every sample whose decision value is not within their rounding of 0; and the batch contains() is the single one
+
+import java.io.IOException;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class StorageTest extends TestCase {
+	private static final int NUM_ANCHORS = 25;
+	private static final int[] STORAGES = {TrainingModel.STORAGE_DOUBLE, TrainingModel.STORAGE_FLOAT,
+		TrainingModel.STORAGE_INT8, TrainingModel.STORAGE_POOLED, TrainingModel.STORAGE_DIRECT};
+	
+	private TestFiles files;
+	private double[][] range;
+	private String[] trainFiles = new String[3];
+	
+	protected void setUp() throws IOException {
+		files = new TestFiles("StorageTest");
+		Random r = new Random(17);
+		range = TestFiles.range(r, NUM_ANCHORS);
+		for (int m = 0; m < trainFiles.length; m++)
+			trainFiles[m] = files.writeModel("m" + m + ".txt", r, range, 40 + 150*m, 0.02 + 0.1*m);
+	}
+	
+	protected void tearDown() {
+		files.delete();
+	}
+	
+	private static double tolerance(int storage) {
+		// margin around 0 within which a rounded storage may decide a sample otherwise
+		if (storage == TrainingModel.STORAGE_FLOAT) return 1e-4;
+		if (storage == TrainingModel.STORAGE_INT8) return 1e-5;
+		return 0;
+	}
+	
+	public void testContains() throws IOException {
+		Random r = new Random(18);
+		for (int m = 0; m < trainFiles.length; m++) {
+			SparseSample[] samples = TestFiles.samples(r, range, 2000);
+			TrainingModel exact = new TrainingModel(trainFiles[m], NUM_ANCHORS, TrainingModel.STORAGE_DOUBLE);
+			double[] values = exact.decisionValues(samples);
+			int positive = 0;
+			for (int s = 0; s < samples.length; s++)
+				if (values[s] > 0) positive++;
+			// both sides of the boundary are tested
+			assertTrue(positive > 0 && positive < samples.length);
+			
+			for (int k = 0; k < STORAGES.length; k++) {
+				TrainingModel model = new TrainingModel(trainFiles[m], NUM_ANCHORS, STORAGES[k]);
+				double margin = tolerance(STORAGES[k]);
+				boolean[] batch = model.contains(samples);
+				double[] modelValues = model.decisionValues(samples);
+				for (int s = 0; s < samples.length; s++) {
+					String what = "model " + m + " storage " + STORAGES[k] + " sample " + s;
+					boolean single = model.contains(samples[s]);
+					assertEquals(what, single, batch[s]);
+					assertEquals(what, modelValues[s] > 0, single);
+					if (Math.abs(values[s]) > margin) assertEquals(what, values[s] > 0, single);
+					assertEquals(what, values[s], modelValues[s], (margin == 0)? 1e-9 : margin);
+				}
+			}
+		}
+	}
+	
+	public void testPooled() throws IOException {
+		// models sharing a SupportVectorPool decide as they do on their own
+		SupportVectorPool pool = new SupportVectorPool();
+		TrainingModel[] pooled = new TrainingModel[trainFiles.length];
+		TrainingModel[] exact = new TrainingModel[trainFiles.length];
+		for (int m = 0; m < trainFiles.length; m++) {
+			pooled[m] = new TrainingModel(trainFiles[m], NUM_ANCHORS, TrainingModel.STORAGE_POOLED, pool);
+			exact[m] = new TrainingModel(trainFiles[m], NUM_ANCHORS, TrainingModel.STORAGE_DOUBLE);
+		}
+		Random r = new Random(19);
+		for (int s = 0; s < 2000; s++) {
+			SparseSample sample = new SparseSample(TestFiles.sample(r, range));
+			for (int m = 0; m < trainFiles.length; m++)
+				assertEquals(exact[m].contains(sample), pooled[m].contains(sample));
+		}
+	}
+	
+	public void testExpFunction() throws IOException {
+		// FastExp with its error band decides like Math.exp: a sample it cannot tell is decided with the exact kernel
+		Random r = new Random(20);
+		SparseSample[] samples = TestFiles.samples(r, range, 3000);
+		for (int m = 0; m < trainFiles.length; m++) {
+			TrainingModel exact = new TrainingModel(trainFiles[m], NUM_ANCHORS, TrainingModel.STORAGE_DOUBLE);
+			TrainingModel fast = new TrainingModel(trainFiles[m], NUM_ANCHORS, TrainingModel.STORAGE_DOUBLE);
+			fast.setExpFunction(new FastExp(), 0);
+			boolean[] batch = fast.contains(samples);
+			for (int s = 0; s < samples.length; s++) {
+				assertEquals(exact.contains(samples[s]), fast.contains(samples[s]));
+				assertEquals(exact.contains(samples[s]), batch[s]);
+			}
+		}
+	}
+}
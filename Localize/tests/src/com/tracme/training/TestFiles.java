@@ -0,0 +1,153 @@
+package com.tracme.training;
+
+// synthetic libsvm models and floors for the tests, written under a directory of their own in the Downloads folder
+// (where AndroidLog puts the files of the package); delete() removes it. Models loaded through ModelFile.load()
+// also leave entries in the ModelCache, which prune() deletes after ModelCache.MAX_AGE like any other.
+// The raw values are whole numbers within a byte, as the app records them (level + 100), and the SVs are scaled
+// from whole raw values, so every storage, STORAGE_INT8 included, represents them closely.
+
+import java.io.*;
+import java.util.Random;
+import com.tracme.util.*;
+
+class TestFiles {
+	final String dir; // relative to the Downloads folder, see AndroidLog
+	
+	TestFiles(String name) {
+		dir = "localize-tests/" + name + "-" + System.nanoTime();
+		file("").mkdirs();
+	}
+	
+	File file(String name) {
+		return new AndroidLog(dir + "/" + name).file;
+	}
+	
+	String path(String name) {
+		// name as the classes of the package take it, relative to the Downloads folder
+		return dir + "/" + name;
+	}
+	
+	void delete() {
+		delete(file(""));
+	}
+	
+	private static void delete(File f) {
+		File[] children = f.listFiles();
+		if (children != null)
+			for (int i = 0; i < children.length; i++)
+				delete(children[i]);
+		f.delete();
+	}
+	
+	static double[][] range(Random r, int numAnchors) {
+		// training range [min, max] of each attribute; attribute 2 never varies (a zero range). max-min is even, so
+		// the raw value of a scaled 0 is whole too
+		double[][] ret = new double[numAnchors][2];
+		for (int j = 0; j < numAnchors; j++) {
+			ret[j][0] = 10 + r.nextInt(20);
+			ret[j][1] = (j == 2)? ret[j][0] : ret[j][0] + 2*(15 + r.nextInt(25));
+		}
+		return ret;
+	}
+	
+	static double scale(double raw, double[] range) {
+		// svm-scale to [-1, 1]
+		return -1 + (raw-range[0])/(range[1]-range[0])*2;
+	}
+	
+	static double[] sample(Random r, double[][] range) {
+		// a raw reading: each AP heard with probability 2/3, a few units beyond its training range at times
+		double[] ret = new double[range.length];
+		for (int j = 0; j < range.length; j++)
+			if (r.nextInt(3) > 0) ret[j] = Math.max(1, range[j][0] - 5 + r.nextInt((int) (range[j][1]-range[j][0]) + 11));
+		return ret;
+	}
+	
+	static SparseSample[] samples(Random r, double[][] range, int n) {
+		SparseSample[] ret = new SparseSample[n];
+		for (int s = 0; s < n; s++)
+			ret[s] = new SparseSample(sample(r, range));
+		return ret;
+	}
+	
+	String writeModel(String name, Random r, double[][] range, int numSV, double gamma) throws IOException {
+		// a binary model (labels 1 and -1) with its .range and .log files; returns its training file
+		return writeModel(name, r, range, new int[] {1, -1}, new int[] {(numSV+1)/2, numSV/2}, gamma);
+	}
+	
+	String writeModel(String name, Random r, double[][] range, int[] labels, int[] nr_sv, double gamma) throws IOException {
+		// a one-vs-one model of labels.length classes, with nr_sv[c] SVs of class c
+		int nr_class = labels.length;
+		int total_sv = 0;
+		for (int c = 0; c < nr_class; c++)
+			total_sv += nr_sv[c];
+		
+		PrintWriter out = new PrintWriter(file(name + ".range"));
+		out.println("x");
+		out.println("-1 1");
+		for (int j = 0; j < range.length; j++)
+			out.println((j+1) + " " + (int) range[j][0] + " " + (int) range[j][1]);
+		out.close();
+		
+		out = new PrintWriter(file(name + ".log"));
+		out.println("*");
+		out.println("optimization finished");
+		out.println("Cross Validation Accuracy rate=0.875");
+		out.close();
+		
+		out = new PrintWriter(file(name + ".model"));
+		out.println("svm_type c_svc");
+		out.println("kernel_type rbf");
+		out.println("gamma " + gamma);
+		out.println("nr_class " + nr_class);
+		out.println("total_sv " + total_sv);
+		out.print("rho");
+		for (int p = 0; p < nr_class*(nr_class-1)/2; p++)
+			out.print(" " + 0.3*r.nextGaussian());
+		out.println();
+		out.print("label");
+		for (int c = 0; c < nr_class; c++)
+			out.print(" " + labels[c]);
+		out.println();
+		out.print("nr_sv");
+		for (int c = 0; c < nr_class; c++)
+			out.print(" " + nr_sv[c]);
+		out.println();
+		out.println("SV");
+		for (int c = 0; c < nr_class; c++) {
+			for (int i = 0; i < nr_sv[c]; i++) {
+				StringBuilder line = new StringBuilder();
+				// the first class of each pair has positive alphas
+				for (int d = 0; d < nr_class-1; d++) {
+					double alpha = 0.1 + 4*r.nextDouble();
+					line.append((d < c)? -alpha : alpha).append(' ');
+				}
+				for (int j = 0; j < range.length; j++) {
+					if (r.nextInt(3) == 0 || range[j][1] == range[j][0]) continue;
+					double value = scale(range[j][0] + r.nextInt((int) (range[j][1]-range[j][0]) + 1), range[j]);
+					if (value != 0) line.append(j+1).append(':').append(value).append(' ');
+				}
+				out.println(line);
+			}
+		}
+		out.close();
+		return path(name);
+	}
+	
+	String writeFloor(Random r, double[][] range, int numClassesX, int numClassesY, int maxX, int maxY) throws IOException {
+		// the stripe models of a floor as TestingTask reads them: raw.txt_dir/parameters.txt and the models of
+		// raw.txt_dir/train.txt_dir/X<numClassesX> and Y<numClassesY>; returns the raw data file for TestingTask
+		file("raw.txt_dir/train.txt_dir/X" + numClassesX).mkdirs();
+		file("raw.txt_dir/train.txt_dir/Y" + numClassesY).mkdirs();
+		PrintWriter out = new PrintWriter(file("raw.txt_dir/parameters.txt"));
+		out.println(maxX);
+		out.println(maxY);
+		out.println(range.length);
+		out.close();
+		for (int i = 0; i < numClassesX; i++)
+			writeModel("raw.txt_dir/train.txt_dir/X" + numClassesX + "/" + (i+1) + ".txt", r, range, 8 + r.nextInt(20), 0.1);
+		for (int i = 0; i < numClassesY; i++)
+			writeModel("raw.txt_dir/train.txt_dir/Y" + numClassesY + "/" + (i+1) + ".txt", r, range, 8 + r.nextInt(20), 0.1);
+		return path("raw.txt");
+	}
+}
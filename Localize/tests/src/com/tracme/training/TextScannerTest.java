@@ -0,0 +1,152 @@
+package com.tracme.training;
+
+// TextScanner: the numbers it parses in place are those of Integer.parseInt() and Double.parseDouble()
+
+import java.io.*;
+import java.util.Random;
+import junit.framework.TestCase;
+
+public class TextScannerTest extends TestCase {
+	private static TextScanner scanner(String text) throws IOException {
+		TextScanner ret = new TextScanner(new ByteArrayInputStream(text.getBytes("US-ASCII")));
+		assertTrue(ret.nextLine());
+		return ret;
+	}
+	
+	private static String randomNumber(Random r) {
+		// decimal strings as the text files of the package have them and a few more: signs, long fractions and
+		// mantissas, exponents, leading and trailing zeros
+		StringBuilder s = new StringBuilder();
+		int sign = r.nextInt(4);
+		if (sign == 0) s.append('-');
+		else if (sign == 1) s.append('+');
+		int intDigits = r.nextInt(4) == 0? 0 : 1 + r.nextInt(r.nextBoolean()? 3 : 22);
+		for (int k = 0; k < intDigits; k++)
+			s.append((char) ('0' + r.nextInt(10)));
+		if (intDigits == 0 || r.nextBoolean()) {
+			s.append('.');
+			int fracDigits = ((intDigits == 0)? 1 : 0) + r.nextInt(r.nextBoolean()? 6 : 25);
+			for (int k = 0; k < fracDigits; k++)
+				s.append((char) ('0' + r.nextInt(10)));
+		}
+		if (r.nextInt(3) == 0) {
+			s.append(r.nextBoolean()? 'e' : 'E');
+			if (r.nextBoolean()) s.append(r.nextBoolean()? '-' : '+');
+			s.append(r.nextInt(r.nextBoolean()? 30 : 330));
+		}
+		return s.toString();
+	}
+	
+	public void testNextDouble() throws IOException {
+		Random r = new Random(6);
+		for (int n = 0; n < 100000; n++) {
+			String s = randomNumber(r);
+			TextScanner in = scanner(s);
+			double expected = Double.parseDouble(s);
+			double actual = in.nextDouble();
+			// same bits, so -0.0 is not 0.0
+			assertEquals(s, Double.doubleToLongBits(expected), Double.doubleToLongBits(actual));
+			assertFalse(in.hasNext());
+		}
+	}
+	
+	public void testLine() throws IOException {
+		// a testing sample line and an SV line of a .model file
+		TextScanner in = scanner("12,34#1:-49 3:-71.5\t12:0.25e1 \r\n");
+		assertEquals(12, in.nextInt());
+		assertTrue(in.skip(','));
+		assertEquals(34, in.nextInt());
+		assertFalse(in.skip(','));
+		assertTrue(in.skip('#'));
+		double[] expected = {1, -49, 3, -71.5, 12, 2.5};
+		for (int k = 0; k < expected.length; k += 2) {
+			assertEquals((int) expected[k], in.nextInt());
+			assertTrue(in.skip(':'));
+			assertEquals(expected[k+1], in.nextDouble(), 0);
+		}
+		assertFalse(in.hasNext());
+		assertFalse(in.nextLine());
+		
+		in = scanner("0.5 -1.25 1:0.1 2:-0.3\n");
+		assertEquals(0.5, in.nextDouble(), 0);
+		assertEquals(-1.25, in.nextDouble(), 0);
+		assertEquals(1, in.nextInt());
+		assertTrue(in.skip(':'));
+		assertEquals(0.1, in.nextDouble(), 0);
+	}
+	
+	public void testNextInt() throws IOException {
+		int[] values = {0, 1, -1, 7, 100, -100, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE-1};
+		for (int k = 0; k < values.length; k++)
+			assertEquals(values[k], scanner(" " + values[k] + " ").nextInt());
+		assertEquals(42, scanner("+42").nextInt());
+		assertEquals(7, scanner("0000000007").nextInt());
+		Random r = new Random(7);
+		for (int n = 0; n < 10000; n++) {
+			int v = r.nextInt();
+			assertEquals(v, scanner(Integer.toString(v)).nextInt());
+		}
+	}
+	
+	public void testMalformed() throws IOException {
+		String[] ints = {"", " ", "-", "x", "2147483648", "-2147483649", "99999999999", "00000000001"};
+		for (int k = 0; k < ints.length; k++) {
+			try {
+				scanner(ints[k] + "\n").nextInt();
+				fail("no NumberFormatException for \"" + ints[k] + "\"");
+			}
+			catch (NumberFormatException e) {
+				// expected
+			}
+		}
+		String[] doubles = {"", "-", "x", ".", "1e", "1e+", "-.e3"};
+		for (int k = 0; k < doubles.length; k++) {
+			try {
+				scanner(doubles[k] + "\n").nextDouble();
+				fail("no NumberFormatException for \"" + doubles[k] + "\"");
+			}
+			catch (NumberFormatException e) {
+				assertTrue(e.getMessage().startsWith("line 1: bad double"));
+			}
+		}
+	}
+	
+	public void testText() throws IOException {
+		// the header lines of the .model and .log files
+		TextScanner in = scanner("svm_type c_svc\nCross Validation Accuracy = 87.5%\nx;y;z\n");
+		assertTrue(in.startsWith("svm_type"));
+		in.skipToken();
+		assertEquals("c_svc", in.nextToken());
+		assertEquals("", in.nextToken());
+		assertTrue(in.nextLine());
+		int start = in.position();
+		assertTrue(in.find("= "));
+		assertEquals(87.5, in.nextDouble(), 0);
+		assertEquals("%", in.rest());
+		assertEquals("Cross Validation Accuracy = 87.5%", in.rest(start));
+		assertFalse(in.find("="));
+		assertTrue(in.nextLine());
+		assertEquals("x;y;z", in.lineString());
+		assertEquals("x y z", in.lineString(';', ' '));
+		assertFalse(in.nextLine());
+	}
+	
+	public void testLongLines() throws IOException {
+		// lines longer than the buffers, without an end of line at the end of the file
+		StringBuilder s = new StringBuilder();
+		for (int k = 0; k < 5000; k++)
+			s.append(k).append(':').append(k/8.0).append(' ');
+		String line = s.toString().trim();
+		TextScanner in = new TextScanner(new ByteArrayInputStream((line + "\n" + line).getBytes("US-ASCII")));
+		for (int n = 0; n < 2; n++) {
+			assertTrue(in.nextLine());
+			for (int k = 0; k < 5000; k++) {
+				assertEquals(k, in.nextInt());
+				assertTrue(in.skip(':'));
+				assertEquals(k/8.0, in.nextDouble(), 0);
+			}
+			assertFalse(in.hasNext());
+		}
+		assertFalse(in.nextLine());
+	}
+}